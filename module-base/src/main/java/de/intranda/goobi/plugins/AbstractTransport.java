@@ -0,0 +1,236 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.goobi.production.enums.LogType;
+
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * State and helpers that all transports share. The settings are taken from the ZopExportConfig of the process, the metrics, the cache and
+ * the journal belong to the export that created the transport.
+ */
+@Log4j2
+abstract class AbstractTransport implements ExportTransport {
+
+    private static final String STAGING_SUFFIX = ".partial"; // staged folders are named .<folderName>.partial
+
+    protected final boolean staging; // true if the images should be copied into a hidden sibling folder that is renamed when complete
+    protected final boolean checkIfPathEmpty;
+    protected final boolean resume; // true if files that were already delivered by a previous export should be skipped
+    protected final boolean writeManifest; // true if a file listing the checksums of all exported files should be written next to the .ctl file
+    protected final PipelinedTransfer pipeline; // buffers that read the source files ahead of the transfer
+    protected final ExportMetrics metrics;
+    protected final ChecksumCache checksumCache; // checksums of unchanged source files from previous exports
+    private final Journal journal;
+    @Setter
+    protected TransferThrottle throttle = TransferThrottle.UNLIMITED; // shared with all other exports to the same target
+    protected final ChecksumManifest manifest = new ChecksumManifest(); // the transport belongs to a single export
+
+    /**
+     * 
+     * @param config ZopExportConfig of the process
+     * @param metrics ExportMetrics of the export
+     * @param checksumCache ChecksumCache of the plugin
+     * @param journal Journal of the export
+     */
+    protected AbstractTransport(ZopExportConfig config, ExportMetrics metrics, ChecksumCache checksumCache, Journal journal) {
+        staging = config.isStaging();
+        checkIfPathEmpty = config.isCheckIfPathEmpty();
+        resume = config.isResume();
+        writeManifest = config.isManifest();
+        pipeline = config.getPipeline();
+        this.metrics = metrics;
+        this.checksumCache = checksumCache;
+        this.journal = journal;
+    }
+
+    @Override
+    public Path getFolderPath(Path path) {
+        // the images are staged in a sibling folder first
+        return staging ? path.getParent() : path;
+    }
+
+    @Override
+    public Map<String, Long> getDeliveredSizes(List<ExportSource> sources, Path path) throws IOException {
+        Map<String, Long> deliveredSizes = new HashMap<>();
+        if (!resume) {
+            return deliveredSizes;
+        }
+        Path workPath = staging ? getStagingPath(path) : path;
+        for (String target : sources.stream().map(ExportSource::getTarget).distinct().collect(Collectors.toList())) {
+            getFileSizes(workPath.resolve(target))
+                    .forEach((name, size) -> deliveredSizes.put(target.isEmpty() ? name : target + "/" + name, size));
+        }
+        return deliveredSizes;
+    }
+
+    /**
+     * 
+     * @param path absolute path of a target folder, which may not exist yet
+     * @return sizes of the files inside of the folder, mapped by their names, empty if the folder does not exist
+     * @throws IOException if the folder can not be listed
+     */
+    protected abstract Map<String, Long> getFileSizes(Path path) throws IOException;
+
+    /**
+     * 
+     * @param processId
+     * @param logType
+     * @param message message to be shown to both terminal and journal
+     */
+    protected void logBoth(int processId, LogType logType, String message) {
+        journal.write(processId, logType, message);
+    }
+
+    /**
+     * 
+     * @param path absolute path of the target folder
+     * @return absolute path of the hidden sibling folder the images are staged in, i.e. .&lt;folderName&gt;.partial
+     */
+    static Path getStagingPath(Path path) {
+        return path.resolveSibling("." + path.getFileName().toString() + STAGING_SUFFIX);
+    }
+
+    /**
+     * hand the files of the source folder to a pool of workers while the folder is still being read, the first failure stops the reading
+     * and cancels all remaining tasks
+     * 
+     * @param sources resolved ExportSources
+     * @param threads number of workers
+     * @param task Visitor that is called for every file by one of the workers
+     * @return number of files in the source folders
+     * @throws IOException if a source folder can not be read
+     * @throws ExecutionException if the task failed for one of the files
+     * @throws InterruptedException
+     */
+    protected int forEachFileParallel(List<ExportSource> sources, int threads, SourceFiles.Visitor<Exception> task)
+            throws IOException, ExecutionException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+            AtomicInteger pendingTasks = new AtomicInteger();
+            // the reading waits for an idle worker, so that the tasks of a large folder do not pile up in the queue of the executor
+            Semaphore idleWorkers = new Semaphore(threads);
+            int files = SourceFiles.forEach(sources, (srcPath, targetName) -> {
+                // a worker is released after at most one file, an interruption is noticed by the next take then
+                idleWorkers.acquireUninterruptibly();
+                completionService.submit(() -> {
+                    try {
+                        task.visit(srcPath, targetName);
+                        return null;
+                    } finally {
+                        idleWorkers.release();
+                    }
+                });
+                pendingTasks.incrementAndGet();
+                Future<Void> finished;
+                while ((finished = completionService.poll()) != null) {
+                    pendingTasks.decrementAndGet();
+                    getFinished(finished);
+                }
+            });
+            for (int i = pendingTasks.get(); i > 0; i--) {
+                completionService.take().get();
+            }
+            return files;
+        } finally {
+            // make sure that no worker is still writing before the caller starts cleaning up
+            shutdownAndWait(executor);
+        }
+    }
+
+    /**
+     * 
+     * @param future Future that is already done
+     * @throws ExecutionException if its task failed
+     */
+    private static void getFinished(Future<Void> future) throws ExecutionException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            // can not happen, since the Future is done already
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 
+     * @param executor ExecutorService that should be stopped
+     */
+    static void shutdownAndWait(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.debug("Waiting for the remaining threads to stop.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 
+     * @param first modification time in milliseconds
+     * @param second modification time in milliseconds
+     * @return true if both times are equal on a precision of seconds, since not every file system stores milliseconds
+     */
+    protected static boolean isSameModificationTime(long first, long second) {
+        return first / 1000 == second / 1000;
+    }
+
+    /**
+     * count a file that was already delivered by a previous attempt, it is only kept if it has to be added to the manifest later on
+     * 
+     * @param skippedFiles skipped files, mapped by their relative paths inside the target folder
+     * @param skippedCount counter of the skipped files
+     * @param srcPath absolute path to the source file
+     * @param targetName relative path of the file inside the target folder
+     */
+    protected void skipFile(Map<String, Path> skippedFiles, AtomicInteger skippedCount, Path srcPath, String targetName) {
+        skippedCount.incrementAndGet();
+        if (writeManifest) {
+            skippedFiles.put(targetName, srcPath);
+        }
+    }
+
+    /**
+     * add the files that were skipped because of the resume mode to the manifest, using the checksums of the previous manifest if possible
+     * 
+     * @param skippedFiles absolute paths of the files that were already delivered by a previous attempt, mapped by their relative paths
+     * @param previousManifest manifest written by a previous attempt, may be null
+     * @throws IOException
+     */
+    protected void completeManifest(Map<String, Path> skippedFiles, ChecksumManifest previousManifest) throws IOException {
+        for (Map.Entry<String, Path> entry : skippedFiles.entrySet()) {
+            String file = entry.getKey();
+            if (manifest.contains(file)) {
+                continue;
+            }
+            Path srcPath = entry.getValue();
+            long size = Files.size(srcPath);
+            String checksum = previousManifest == null ? null : previousManifest.getChecksum(file, size);
+            if (checksum == null) {
+                checksum = checksumCache.checksum(srcPath, FileDigest.SHA_256);
+            }
+            manifest.add(file, size, checksum);
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Remembers the checksums of source files across exports, so that unchanged master images are not read again just to compute their digests.
+ * An entry is only valid for the path, size and modification time of the file it was computed for. The entries are appended to a text file,
+ * one line per entry in the form <code>checksum digest size modificationTime path</code>. The least recently used entries are evicted once
+ * the cache holds more than the configured number of entries, and the file is rewritten when it contains too many outdated lines. One
+ * instance exists per file, which should not be shared with other Goobi instances.
+ */
+@Log4j2
+final class ChecksumCache {
+
+    /**
+     * cache that remembers nothing
+     */
+    static final ChecksumCache DISABLED = new ChecksumCache(null, 0);
+
+    private static final Map<Path, ChecksumCache> CACHES = new ConcurrentHashMap<>();
+
+    // null if disabled
+    private final Path file;
+    private int maxEntries;
+    // access order, so that the least recently used entries are evicted first
+    private final Map<String, String> entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private boolean loaded;
+    // number of lines in the file, including the ones of evicted and replaced entries
+    private int fileLines;
+
+    ChecksumCache(Path file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     *
+     * @param file absolute path to the file that keeps the entries
+     * @param maxEntries maximum number of entries, 0 if the cache is disabled
+     * @return the ChecksumCache shared by all exports that use this file
+     */
+    static ChecksumCache forFile(Path file, int maxEntries) {
+        if (maxEntries <= 0) {
+            return DISABLED;
+        }
+        ChecksumCache cache = CACHES.computeIfAbsent(file.toAbsolutePath().normalize(), f -> new ChecksumCache(f, maxEntries));
+        cache.setMaxEntries(maxEntries);
+        return cache;
+    }
+
+    /**
+     * get the checksum of a file from the cache, or compute and remember it
+     *
+     * @param path absolute path to the file
+     * @param digest FileDigest of the checksum
+     * @return the checksum as lower case hex string
+     * @throws IOException if the file could not be read
+     */
+    String checksum(Path path, FileDigest digest) throws IOException {
+        String version = getVersion(path);
+        if (version == null) {
+            return digest.checksum(path);
+        }
+        String key = digest.getId() + " " + version;
+        String checksum;
+        synchronized (this) {
+            load();
+            checksum = entries.get(key);
+        }
+        if (checksum == null) {
+            checksum = digest.checksum(path);
+            put(path, version, digest, checksum);
+        }
+        return checksum;
+    }
+
+    /**
+     *
+     * @param path absolute path to the file
+     * @return the size, modification time and path of the file as they are used in the entries, or null if the cache is disabled
+     * @throws IOException if the attributes of the file could not be read
+     */
+    String getVersion(Path path) throws IOException {
+        if (file == null) {
+            return null;
+        }
+        String absolutePath = path.toAbsolutePath().normalize().toString();
+        if (absolutePath.indexOf('\n') >= 0 || absolutePath.indexOf('\r') >= 0) {
+            // such paths would break the lines of the file
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return attributes.size() + " " + attributes.lastModifiedTime().toMillis() + " " + absolutePath;
+    }
+
+    /**
+     * remember a checksum that was computed while the file was copied anyway
+     *
+     * @param path absolute path to the file
+     * @param version result of getVersion before the file was read, the checksum is dropped if the file changed since
+     * @param digest FileDigest of the checksum
+     * @param checksum checksum as lower case hex string
+     * @throws IOException if the attributes of the file could not be read
+     */
+    void put(Path path, String version, FileDigest digest, String checksum) throws IOException {
+        put(path, version, new FileDigest[] { digest }, new String[] { checksum });
+    }
+
+    /**
+     * remember several checksums of the same file
+     *
+     * @param path absolute path to the file
+     * @param version result of getVersion before the file was read, the checksums are dropped if the file changed since
+     * @param digests FileDigests of the checksums
+     * @param checksums checksums as lower case hex strings, in the order of the digests
+     * @throws IOException if the attributes of the file could not be read
+     */
+    void put(Path path, String version, FileDigest[] digests, String[] checksums) throws IOException {
+        // a file that was changed while it was read has a checksum that belongs to neither version
+        if (version == null || !version.equals(getVersion(path))) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        synchronized (this) {
+            load();
+            for (int i = 0; i < digests.length; i++) {
+                String key = digests[i].getId() + " " + version;
+                if (!checksums[i].equals(entries.put(key, checksums[i]))) {
+                    lines.append(checksums[i]).append(' ').append(key).append('\n');
+                    fileLines++;
+                }
+            }
+            if ((fileLines <= 2 * maxEntries || !compact()) && lines.length() > 0) {
+                append(lines.toString());
+            }
+        }
+    }
+
+    private synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                fileLines++;
+                String[] parts = line.split(" ", 2);
+                // skip broken lines, e.g. the last one after a crash, the affected files will simply be hashed again
+                if (parts.length == 2 && parts[1].split(" ", 4).length == 4) {
+                    entries.put(parts[1], parts[0]);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read the checksum cache " + file + ": " + e.getMessage());
+        }
+        if (fileLines > 2 * maxEntries) {
+            compact();
+        }
+    }
+
+    private void append(String lines) {
+        try {
+            Files.createDirectories(file.getParent());
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(lines);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to write the checksum cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * rewrite the file with the current entries only, the least recently used first, so that they keep their order after the next start
+     *
+     * @return true if the file was rewritten
+     */
+    private boolean compact() {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    writer.write(entry.getValue() + " " + entry.getKey() + "\n");
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fileLines = entries.size();
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to compact the checksum cache " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+}
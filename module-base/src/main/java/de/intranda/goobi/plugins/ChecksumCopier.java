@@ -0,0 +1,45 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copies files while computing the SHA-256 checksum, or other FileDigests, of the transferred bytes, so that the source only needs to be read
+ * once. The source is read ahead of the target by a PipelinedTransfer.
+ */
+final class ChecksumCopier {
+
+    private ChecksumCopier() {
+        // only static methods
+    }
+
+    /**
+     * 
+     * @param srcPath absolute path to the source file
+     * @param destPath absolute path to the target file, will be overwritten if it already exists
+     * @param sync true if the written data should be forced to the storage device before returning, false otherwise
+     * @param throttle TransferThrottle that limits the bandwidth of the copy
+     * @param pipeline PipelinedTransfer that reads the source ahead of writing the target
+     * @param digests FileDigests that are computed over the bytes read from srcPath
+     * @return the checksums of the bytes read from srcPath as hex strings, in the order of digests
+     * @throws IOException
+     */
+    static String[] copy(Path srcPath, Path destPath, boolean sync, TransferThrottle throttle, PipelinedTransfer pipeline, FileDigest... digests)
+            throws IOException {
+        String[] checksums;
+        try (FileChannel channel = FileChannel.open(destPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            checksums = pipeline.copy(srcPath, channel, throttle, digests);
+            if (sync) {
+                channel.force(true);
+            }
+        }
+        // keep the modification date of the original file
+        Files.setLastModifiedTime(destPath, Files.getLastModifiedTime(srcPath));
+        return checksums;
+    }
+
+}
@@ -0,0 +1,155 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Collects the checksums and sizes of the exported files. The manifest is written next to the .ctl file as two files: the checksums in the
+ * format of <code>sha256sum</code>, i.e. one line <code>checksum  fileName</code> per file, so that the receiving side can verify the
+ * delivery with <code>sha256sum -c</code>, and the sizes in the same layout, i.e. <code>size  fileName</code>.
+ */
+final class ChecksumManifest {
+
+    static final String FILE_EXTENSION = ".sha256";
+    static final String SIZES_EXTENSION = ".sizes";
+    // separates the value from the file name, sha256sum uses a space followed by a space for text or by an asterisk for binary mode
+    private static final String SEPARATOR = "  ";
+
+    private final Map<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    /**
+     *
+     * @param fileName name of the file relative to the exported folder
+     * @param size size of the file in bytes
+     * @param checksum checksum of the file as hex string
+     */
+    void add(String fileName, long size, String checksum) {
+        entries.put(fileName, new Entry(size, checksum));
+    }
+
+    /**
+     *
+     * @param fileName name of the file relative to the exported folder
+     * @param size expected size of the file in bytes
+     * @return the recorded checksum if the file is listed with the given size, null otherwise
+     */
+    String getChecksum(String fileName, long size) {
+        Entry entry = entries.get(fileName);
+        return entry != null && entry.size == size ? entry.checksum : null;
+    }
+
+    boolean contains(String fileName) {
+        return entries.containsKey(fileName);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     *
+     * @param out OutputStream the checksums are written to in the format of sha256sum, it will not be closed
+     * @throws IOException
+     */
+    void writeChecksums(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            writer.write(entry.getValue().checksum + SEPARATOR + entry.getKey() + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     *
+     * @param out OutputStream the sizes are written to, it will not be closed
+     * @throws IOException
+     */
+    void writeSizes(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            writer.write(entry.getValue().size + SEPARATOR + entry.getKey() + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     *
+     * @param checksums InputStream of the checksums that were written before, it will not be closed
+     * @param sizes InputStream of the sizes that were written before, it will not be closed
+     * @return ChecksumManifest containing all files that are listed with a valid line in both inputs
+     * @throws IOException
+     */
+    static ChecksumManifest read(InputStream checksums, InputStream sizes) throws IOException {
+        Map<String, String> sizesByName = readLines(sizes);
+        ChecksumManifest manifest = new ChecksumManifest();
+        for (Map.Entry<String, String> entry : readLines(checksums).entrySet()) {
+            String size = sizesByName.get(entry.getKey());
+            if (size != null) {
+                try {
+                    manifest.add(entry.getKey(), Long.parseLong(size), entry.getValue());
+                } catch (NumberFormatException e) {
+                    // skip broken lines, the affected files will simply be hashed again
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     *
+     * @param in InputStream with lines in the format of sha256sum
+     * @return the values of all valid lines, mapped by their file names
+     * @throws IOException
+     */
+    private static Map<String, String> readLines(InputStream in) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int separator = line.indexOf(' ');
+            // the value is followed by a space and the mode, i.e. a space or an asterisk
+            if (separator > 0 && line.length() > separator + 2 && (line.charAt(separator + 1) == ' ' || line.charAt(separator + 1) == '*')) {
+                values.put(line.substring(separator + 2), line.substring(0, separator));
+            }
+        }
+        return values;
+    }
+
+    /**
+     *
+     * @param folderName name of the exported folder
+     * @return name of the file with the checksums belonging to this folder
+     */
+    static String getFileName(String folderName) {
+        return folderName + FILE_EXTENSION;
+    }
+
+    /**
+     *
+     * @param folderName name of the exported folder
+     * @return name of the file with the sizes belonging to this folder
+     */
+    static String getSizesFileName(String folderName) {
+        return folderName + SIZES_EXTENSION;
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final String checksum;
+
+        private Entry(long size, String checksum) {
+            this.size = size;
+            this.checksum = checksum;
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package de.intranda.goobi.plugins;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the phases of a single export together with the number of transferred files and bytes. The transfer counters are updated by
+ * several copy threads at the same time.
+ */
+final class ExportMetrics {
+
+    static final String PHASE_CONFIG = "config";
+    static final String PHASE_METADATA = "metadata";
+    static final String PHASE_CONNECT = "connect";
+    static final String PHASE_PREFLIGHT = "preflight";
+    static final String PHASE_CREATE_FOLDER = "createFolder";
+    static final String PHASE_TRANSFER = "transfer";
+    static final String PHASE_VERIFY = "verify";
+    static final String PHASE_MANIFEST = "manifest";
+    static final String PHASE_PUBLISH = "publish";
+    static final String PHASE_CREATE_CTL = "createCTL";
+
+    private static final double BYTES_PER_MB = 1024d * 1024d;
+
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong verifyNanos = new AtomicLong();
+
+    /**
+     * 
+     * @param phase name of the phase
+     * @param startNanos value of System.nanoTime() when the phase started
+     */
+    synchronized void endPhase(String phase, long startNanos) {
+        phaseNanos.merge(phase, System.nanoTime() - startNanos, Long::sum);
+    }
+
+    /**
+     * 
+     * @param size number of bytes of a transferred file
+     */
+    void addFile(long size) {
+        files.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    /**
+     * the verification of single files happens inside of the transfer phase, hence it is summed up separately
+     * 
+     * @param startNanos value of System.nanoTime() when the verification of a file started
+     */
+    void addVerification(long startNanos) {
+        verifyNanos.addAndGet(System.nanoTime() - startNanos);
+    }
+
+    long getFiles() {
+        return files.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    synchronized long getPhaseMillis(String phase) {
+        long nanos = phaseNanos.getOrDefault(phase, 0L);
+        if (PHASE_VERIFY.equals(phase)) {
+            nanos += verifyNanos.get();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    synchronized boolean hasPhase(String phase) {
+        return phaseNanos.containsKey(phase);
+    }
+
+    /**
+     * 
+     * @return throughput of the transfer phase in MB/s, 0 if nothing was transferred
+     */
+    double getThroughput() {
+        long millis = getPhaseMillis(PHASE_TRANSFER);
+        return millis == 0 ? 0 : bytes.get() / BYTES_PER_MB / (millis / 1000d);
+    }
+
+    /**
+     * 
+     * @return one line describing the amount of transferred data and the duration of every phase
+     */
+    synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("%d files, %.1f MB transferred at %.1f MB/s", files.get(), bytes.get() / BYTES_PER_MB, getThroughput()));
+        summary.append(" (");
+        boolean first = true;
+        for (String phase : phaseNanos.keySet()) {
+            if (!first) {
+                summary.append(", ");
+            }
+            first = false;
+            summary.append(phase).append(' ').append(getPhaseMillis(phase)).append(" ms");
+        }
+        if (verifyNanos.get() > 0 && !phaseNanos.containsKey(PHASE_VERIFY)) {
+            summary.append(first ? "" : ", ").append(PHASE_VERIFY).append(' ').append(getPhaseMillis(PHASE_VERIFY)).append(" ms");
+        }
+        return summary.append(')').toString();
+    }
+
+}
@@ -0,0 +1,159 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Locale;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Streams the exported files into a single TAR archive, optionally compressed with gzip, that is written directly into an OutputStream
+ * such as the one of an SFTP upload. Nothing is staged on the local disk. The size and the SHA-256 checksum of the written archive are
+ * computed on the way, so that the upload can be verified.
+ */
+@Log4j2
+final class ExportPackage implements Closeable {
+
+    /**
+     * formats of the archive
+     */
+    @Getter
+    enum Format {
+        // every file is transferred by itself
+        NONE(""),
+        TAR(".tar"),
+        TAR_GZ(".tar.gz");
+
+        // appended to the folderName to get the name of the archive
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         *
+         * @param value value of the config option packaging, e.g. tar or tar.gz
+         * @return the matching Format, or NONE if value is blank or unknown
+         */
+        static Format parse(String value) {
+            if (StringUtils.isBlank(value)) {
+                return NONE;
+            }
+            String normalized = value.trim().toLowerCase(Locale.ROOT);
+            for (Format format : values()) {
+                if (format != NONE && format.extension.equals("." + normalized)) {
+                    return format;
+                }
+            }
+            if (!"none".equals(normalized)) {
+                log.warn("Invalid packaging '" + value + "', the files are transferred one by one instead.");
+            }
+            return NONE;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final CountingOutputStream counter;
+    private final MessageDigest digest = DigestUtils.getSha256Digest();
+    private final OutputStream buffered;
+    // null if the archive is not compressed
+    private final GzipCompressorOutputStream gzip;
+    private final TarArchiveOutputStream tar;
+    private final PipelinedTransfer pipeline;
+
+    // SHA-256 checksum of the complete archive as hex string, null until finish was called
+    @Getter
+    private String checksum;
+
+    /**
+     *
+     * @param out OutputStream that receives the archive, it is closed together with this ExportPackage
+     * @param format Format of the archive, must not be NONE
+     * @throws IOException
+     */
+    ExportPackage(OutputStream out, Format format) throws IOException {
+        this(out, format, PipelinedTransfer.DEFAULT);
+    }
+
+    /**
+     *
+     * @param out OutputStream that receives the archive, it is closed together with this ExportPackage
+     * @param format Format of the archive, must not be NONE
+     * @param pipeline PipelinedTransfer that reads the files ahead of writing them into the archive
+     * @throws IOException
+     */
+    ExportPackage(OutputStream out, Format format, PipelinedTransfer pipeline) throws IOException {
+        if (format == Format.NONE) {
+            throw new IllegalArgumentException("No archive format given.");
+        }
+        this.pipeline = pipeline;
+        counter = new CountingOutputStream(out);
+        buffered = new BufferedOutputStream(new DigestOutputStream(counter, digest), BUFFER_SIZE);
+        gzip = format == Format.TAR_GZ ? new GzipCompressorOutputStream(buffered) : null;
+        tar = new TarArchiveOutputStream(gzip != null ? gzip : buffered);
+        // allow file names longer than 100 characters and files larger than 8 GB
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    }
+
+    /**
+     * append a file to the archive
+     *
+     * @param srcPath absolute path to the file
+     * @param name path of the file inside the archive
+     * @param throttle TransferThrottle that limits the bandwidth of reading the file
+     * @return the SHA-256 checksum of the file as hex string
+     * @throws IOException
+     */
+    String add(Path srcPath, String name, TransferThrottle throttle) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(srcPath, name);
+        tar.putArchiveEntry(entry);
+        String fileChecksum = pipeline.copy(srcPath, tar, throttle, FileDigest.SHA_256)[0];
+        tar.closeArchiveEntry();
+        return fileChecksum;
+    }
+
+    /**
+     * write the end of the archive and flush all buffers, the OutputStream stays open until close is called
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        tar.finish();
+        if (gzip != null) {
+            gzip.finish();
+        }
+        buffered.flush();
+        checksum = Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     *
+     * @return number of bytes of the archive that were written so far, including its compression
+     */
+    long getSize() {
+        return counter.getByteCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        tar.close();
+    }
+
+}
@@ -0,0 +1,143 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Process;
+
+import de.sub.goobi.helper.exceptions.DAOException;
+import de.sub.goobi.helper.exceptions.SwapException;
+import lombok.Getter;
+
+/**
+ * One &lt;source&gt; element of a &lt;config&gt; block: a folder of the process whose files are exported into a sub folder of the target,
+ * optionally restricted by glob patterns on the file names. Instances are immutable, the folder is only looked up for a concrete process by
+ * resolve.
+ */
+final class ExportSource {
+
+    static final String MASTER = "master";
+    static final String MEDIA = "media";
+    static final String ALTO = "alto";
+    static final String FULLTEXT = "fulltext";
+    static final String METS = "mets";
+
+    // the METS file of a multi-volume work is accompanied by the one of its anchor
+    private static final String METS_FILES = "{meta.xml,meta_anchor.xml}";
+
+    /**
+     * the master images copied into the target folder itself, which is what is exported if no source is configured
+     */
+    static final ExportSource DEFAULT = new ExportSource(MASTER, "", "", "");
+
+    // name of a folder of the process, see resolve
+    @Getter
+    private final String folder;
+    // sub folder of the target, empty for the target folder itself
+    @Getter
+    private final String target;
+    @Getter
+    private final String include;
+    @Getter
+    private final String exclude;
+    // absolute path of the folder, null until resolved for a process
+    @Getter
+    private final Path path;
+
+    private final PathMatcher includeMatcher;
+    private final PathMatcher excludeMatcher;
+
+    /**
+     *
+     * @param folder name of a folder of the process, see resolve
+     * @param target sub folder of the target, blank for the target folder itself
+     * @param include glob pattern the names of exported files have to match, blank for all files
+     * @param exclude glob pattern the names of exported files must not match, blank for none
+     */
+    ExportSource(String folder, String target, String include, String exclude) {
+        this(folder, StringUtils.strip(StringUtils.trimToEmpty(target), "/"), StringUtils.trimToEmpty(include),
+                StringUtils.trimToEmpty(exclude), null);
+    }
+
+    private ExportSource(String folder, String target, String include, String exclude, Path path) {
+        this.folder = folder;
+        this.target = target;
+        this.include = include;
+        this.exclude = exclude;
+        this.path = path;
+        String effectiveInclude = StringUtils.isBlank(include) && METS.equalsIgnoreCase(folder) ? METS_FILES : include;
+        this.includeMatcher = StringUtils.isBlank(effectiveInclude) ? null : FileSystems.getDefault().getPathMatcher("glob:" + effectiveInclude);
+        this.excludeMatcher = StringUtils.isBlank(exclude) ? null : FileSystems.getDefault().getPathMatcher("glob:" + exclude);
+    }
+
+    /**
+     * find the folder of this source for a process
+     *
+     * @param process process that is exported
+     * @param masterPath absolute path to the master folder of the process
+     * @return copy of this ExportSource whose path is set
+     * @throws IOException if the folder is unknown to Goobi
+     * @throws SwapException
+     * @throws DAOException
+     */
+    ExportSource resolve(Process process, Path masterPath) throws IOException, SwapException, DAOException {
+        String folderPath;
+        switch (folder.toLowerCase(Locale.ROOT)) {
+            case MASTER:
+                return withPath(masterPath);
+            case MEDIA:
+                folderPath = process.getImagesTifDirectory(false);
+                break;
+            case ALTO:
+                folderPath = process.getOcrAltoDirectory();
+                break;
+            case FULLTEXT:
+                folderPath = process.getOcrTxtDirectory();
+                break;
+            case METS:
+                folderPath = Paths.get(process.getMetadataFilePath()).getParent().toString();
+                break;
+            default:
+                // any other folder that is configured in goobi_config.properties, e.g. thumbnails
+                folderPath = process.getConfiguredImageFolder(folder);
+        }
+        if (StringUtils.isBlank(folderPath)) {
+            throw new IOException("The folder '" + folder + "' is not configured in Goobi.");
+        }
+        return withPath(Paths.get(folderPath));
+    }
+
+    /**
+     *
+     * @param fileName name of a file in the folder of this source
+     * @return true if the file matches the include pattern and does not match the exclude pattern
+     */
+    boolean accepts(String fileName) {
+        Path name = Paths.get(fileName);
+        return (includeMatcher == null || includeMatcher.matches(name)) && (excludeMatcher == null || !excludeMatcher.matches(name));
+    }
+
+    /**
+     *
+     * @param fileName name of a file in the folder of this source
+     * @return relative path of the exported file inside the target folder
+     */
+    String getTargetName(String fileName) {
+        return target.isEmpty() ? fileName : target + "/" + fileName;
+    }
+
+    private ExportSource withPath(Path folderPath) {
+        return new ExportSource(folder, target, include, exclude, folderPath);
+    }
+
+    @Override
+    public String toString() {
+        return path == null ? folder : path.toString();
+    }
+
+}
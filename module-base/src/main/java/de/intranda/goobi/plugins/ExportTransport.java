@@ -0,0 +1,156 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Process;
+import org.goobi.production.enums.LogType;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Target an export is delivered to. Every transport creates the target folder, transfers the files of the sources together with the
+ * manifest and creates the .ctl file once everything else is complete. An instance belongs to a single export and is closed afterwards.
+ */
+interface ExportTransport {
+
+    /**
+     * supported transports
+     */
+    @Log4j2
+    enum Type {
+        // folder on a local disk or a mounted share
+        LOCAL,
+        // folder on a remote host that is reached via SFTP
+        SFTP,
+        // prefix inside a bucket of an S3 compatible object storage
+        S3;
+
+        /**
+         *
+         * @param value value of the config option transport
+         * @param sftp value of the config option sftp, which is used if transport is blank
+         * @return the matching Type, or LOCAL if value is unknown
+         */
+        static Type parse(String value, boolean sftp) {
+            if (StringUtils.isBlank(value)) {
+                return sftp ? SFTP : LOCAL;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid transport '" + value + "', using local instead.");
+                return LOCAL;
+            }
+        }
+    }
+
+    /**
+     * receives the messages of a transport that should be shown in the journal of the process
+     */
+    @FunctionalInterface
+    interface Journal {
+        /**
+         *
+         * @param processId
+         * @param logType
+         * @param message message to be shown to both terminal and journal
+         */
+        void write(int processId, LogType logType, String message);
+    }
+
+    /**
+     *
+     * @return Type of this transport
+     */
+    Type getType();
+
+    /**
+     *
+     * @param path absolute path to the folder that should be created, already containing the folderName
+     * @return identifier of the target that is shared with all exports whose transfers should be throttled together
+     */
+    String getThrottleTarget(Path path);
+
+    /**
+     *
+     * @param throttle TransferThrottle that limits the transfers of this export
+     */
+    void setThrottle(TransferThrottle throttle);
+
+    /**
+     *
+     * @return true if the target can be reached, false otherwise
+     * @throws InterruptedException if interrupted while waiting for a free connection
+     */
+    boolean connect() throws InterruptedException;
+
+    /**
+     *
+     * @param path absolute path of the target folder, which may not exist yet
+     * @return the number of bytes that are usable at the target, -1 if unknown
+     */
+    long getUsableSpace(Path path);
+
+    /**
+     *
+     * @param sources resolved ExportSources
+     * @param path absolute path of the target folder, which may not exist yet
+     * @return true if the files share their data with the sources instead of taking space at the target
+     */
+    default boolean isSharingData(List<ExportSource> sources, Path path) {
+        return false;
+    }
+
+    /**
+     *
+     * @param sources resolved ExportSources
+     * @param path absolute path of the target folder, which may not exist yet
+     * @return sizes of the files that a previous attempt already delivered, mapped by their relative paths inside the target folder, empty
+     *         if the export is not resumed
+     * @throws IOException if the target folder can not be listed
+     */
+    Map<String, Long> getDeliveredSizes(List<ExportSource> sources, Path path) throws IOException;
+
+    /**
+     *
+     * @param path absolute path of the target folder
+     * @return absolute path of the folder that has to exist before the copy, the target folder itself or its parent
+     */
+    Path getFolderPath(Path path);
+
+    /**
+     *
+     * @param path absolute path of the folder that should be created
+     * @return true if the folder already exists or is successfully created, false otherwise
+     * @throws IOException
+     */
+    boolean createFolder(Path path) throws IOException;
+
+    /**
+     * transfer the files, the manifest and the .ctl file, the result is written into the journal of the process
+     *
+     * @param process process that is exported
+     * @param sources resolved ExportSources
+     * @param toPath absolute path to the target folder
+     * @return true if the copy is successfully performed, false otherwise
+     */
+    boolean copy(Process process, List<ExportSource> sources, Path toPath);
+
+    /**
+     *
+     * @param path absolute path at the target
+     * @return the path together with the host or bucket it belongs to, as it should be shown in the journal
+     */
+    String describe(Path path);
+
+    /**
+     * release the connection to the target, it is called once after every export
+     */
+    void close();
+
+}
@@ -0,0 +1,345 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Digest that is used to compare a local copy with its original file. Besides SHA-256 it offers faster algorithms, and it can split large
+ * files into chunks of a fixed size that are hashed in parallel. In this case the result is the digest of the concatenated chunk digests,
+ * which is only comparable with results of the same algorithm and chunk size. Files that are not larger than one chunk get the plain digest.
+ */
+@Log4j2
+@Getter
+final class FileDigest {
+
+    /**
+     * supported algorithms
+     */
+    enum Algorithm {
+        SHA_256("sha256"),
+        SHA_512_256("sha512/256"),
+        CRC32C("crc32c"),
+        XXHASH64("xxhash64");
+
+        // value of the config option verifyDigest
+        private final String configValue;
+
+        Algorithm(String configValue) {
+            this.configValue = configValue;
+        }
+
+        /**
+         *
+         * @param value value of the config option verifyDigest
+         * @return the matching Algorithm, or SHA_256 if value is blank or unknown
+         */
+        static Algorithm parse(String value) {
+            if (StringUtils.isBlank(value)) {
+                return SHA_256;
+            }
+            String normalized = value.trim().toLowerCase(Locale.ROOT).replace("-", "");
+            for (Algorithm algorithm : values()) {
+                if (algorithm.configValue.equals(normalized)) {
+                    return algorithm;
+                }
+            }
+            log.warn("Invalid digest '" + value + "', using sha256 instead.");
+            return SHA_256;
+        }
+
+        private Hasher newHasher() {
+            switch (this) {
+                case SHA_512_256:
+                    return new MessageDigestHasher("SHA-512/256");
+                case CRC32C:
+                    return new ChecksumHasher(new CRC32C(), 4);
+                case XXHASH64:
+                    return new ChecksumHasher(new XXHash64(), 8);
+                default:
+                    return new MessageDigestHasher("SHA-256");
+            }
+        }
+    }
+
+    /**
+     * plain SHA-256, the digest of the manifest and of the remote verification
+     */
+    static final FileDigest SHA_256 = new FileDigest(Algorithm.SHA_256, 0);
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // shared by all exports, so that parallel copies do not multiply the number of hashing threads
+    private static final ExecutorService CHUNK_EXECUTOR = createExecutor();
+
+    private final Algorithm algorithm;
+    // size of the chunks in bytes, 0 if files are hashed as a whole
+    private final long chunkSize;
+
+    FileDigest(Algorithm algorithm, long chunkSize) {
+        this.algorithm = algorithm;
+        this.chunkSize = Math.max(0, chunkSize);
+    }
+
+    /**
+     *
+     * @return true if the results are plain SHA-256 checksums that can be used for the manifest
+     */
+    boolean isPlainSha256() {
+        return algorithm == Algorithm.SHA_256 && chunkSize == 0;
+    }
+
+    /**
+     *
+     * @return identifier of the algorithm and the chunk size, e.g. sha256 or xxhash64@67108864
+     */
+    String getId() {
+        return chunkSize == 0 ? algorithm.configValue : algorithm.configValue + "@" + chunkSize;
+    }
+
+    /**
+     *
+     * @return a new Stream that computes this digest over bytes that are passed to it in order, e.g. while copying a file
+     */
+    Stream newStream() {
+        return new Stream();
+    }
+
+    /**
+     * compute the digest of a file, chunks of large files are read and hashed in parallel
+     *
+     * @param path absolute path to the file
+     * @return the digest as lower case hex string
+     * @throws IOException
+     */
+    String checksum(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (chunkSize == 0 || size <= chunkSize) {
+                return Hex.encodeHexString(hashRange(channel, 0, size));
+            }
+            List<Future<byte[]>> chunks = new ArrayList<>();
+            for (long position = 0; position < size; position += chunkSize) {
+                long start = position;
+                long length = Math.min(chunkSize, size - position);
+                chunks.add(CHUNK_EXECUTOR.submit(() -> hashRange(channel, start, length)));
+            }
+            Hasher combined = algorithm.newHasher();
+            try {
+                for (Future<byte[]> chunk : chunks) {
+                    byte[] chunkDigest = chunk.get();
+                    combined.update(chunkDigest, 0, chunkDigest.length);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while computing the checksum of " + path);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } finally {
+                // chunks that did not start yet are skipped after a failure, running ones fail on the closed channel
+                for (Future<byte[]> chunk : chunks) {
+                    chunk.cancel(false);
+                }
+            }
+            return Hex.encodeHexString(combined.digest());
+        }
+    }
+
+    private byte[] hashRange(FileChannel channel, long start, long length) throws IOException {
+        Hasher hasher = algorithm.newHasher();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(1, length)));
+        long position = start;
+        long end = start + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("The file was truncated while computing its checksum.");
+            }
+            hasher.update(buffer.array(), 0, read);
+            position += read;
+        }
+        return hasher.digest();
+    }
+
+    private static ExecutorService createExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "zop-export-digest-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * computes the digest over bytes that are passed in order, with the same result as checksum for the same content
+     */
+    final class Stream {
+
+        private final Hasher combined = algorithm.newHasher();
+        private Hasher chunk = algorithm.newHasher();
+        private long chunkLength;
+        private int completedChunks;
+
+        /**
+         *
+         * @param b bytes that follow the bytes passed before
+         * @param off offset of the first byte
+         * @param len number of bytes
+         */
+        void update(byte[] b, int off, int len) {
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                // a chunk is only completed once further bytes arrive, so that no empty chunk follows the last full one
+                if (chunkSize > 0 && chunkLength == chunkSize) {
+                    completeChunk();
+                }
+                int count = chunkSize > 0 ? (int) Math.min(remaining, chunkSize - chunkLength) : remaining;
+                chunk.update(b, offset, count);
+                chunkLength += count;
+                offset += count;
+                remaining -= count;
+            }
+        }
+
+        /**
+         *
+         * @param buffer ByteBuffer whose remaining bytes follow the bytes passed before, its position is moved to its limit
+         */
+        void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                if (chunkSize > 0 && chunkLength == chunkSize) {
+                    completeChunk();
+                }
+                int count = chunkSize > 0 ? (int) Math.min(buffer.remaining(), chunkSize - chunkLength) : buffer.remaining();
+                ByteBuffer part = buffer.duplicate();
+                part.limit(part.position() + count);
+                chunk.update(part);
+                buffer.position(part.limit());
+                chunkLength += count;
+            }
+        }
+
+        /**
+         *
+         * @return the digest of all bytes as lower case hex string
+         */
+        String finish() {
+            if (completedChunks == 0) {
+                return Hex.encodeHexString(chunk.digest());
+            }
+            completeChunk();
+            return Hex.encodeHexString(combined.digest());
+        }
+
+        private void completeChunk() {
+            byte[] chunkDigest = chunk.digest();
+            combined.update(chunkDigest, 0, chunkDigest.length);
+            chunk = algorithm.newHasher();
+            chunkLength = 0;
+            completedChunks++;
+        }
+    }
+
+    /**
+     * common interface of MessageDigest and Checksum
+     */
+    private interface Hasher {
+        void update(byte[] b, int off, int len);
+
+        void update(ByteBuffer buffer);
+
+        byte[] digest();
+    }
+
+    private static final class MessageDigestHasher implements Hasher {
+
+        private final MessageDigest digest;
+
+        private MessageDigestHasher(String algorithm) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                // every Java 11 runtime has to support SHA-256 and SHA-512/256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            digest.update(b, off, len);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            digest.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            return digest.digest();
+        }
+    }
+
+    private static final class ChecksumHasher implements Hasher {
+
+        private final Checksum checksum;
+        private final int length;
+
+        private ChecksumHasher(Checksum checksum, int length) {
+            this.checksum = checksum;
+            this.length = length;
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            checksum.update(b, off, len);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            checksum.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            long value = checksum.getValue();
+            byte[] bytes = new byte[length];
+            // big endian, like the usual hex notation of these checksums
+            for (int i = length - 1; i >= 0; i--) {
+                bytes[i] = (byte) value;
+                value >>>= 8;
+            }
+            return bytes;
+        }
+    }
+
+}
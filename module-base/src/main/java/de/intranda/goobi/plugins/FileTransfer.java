@@ -0,0 +1,187 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Moves the bytes of a single file to the local target without passing them through the Java heap where possible. Files on the same file
+ * system are hard linked or cloned, other files are copied with FileChannel.transferTo. Stream copying is left to ChecksumCopier.
+ */
+@Log4j2
+final class FileTransfer {
+
+    /**
+     * ways of transferring a file, in the order in which they are tried
+     */
+    enum Method {
+        // REFLINK on the same file system, CHANNEL otherwise
+        AUTO,
+        // hard link, the copy shares its data and its modification date with the original file
+        LINK,
+        // copy-on-write clone on file systems like btrfs or XFS, the copy does not consume additional space until it is changed
+        REFLINK,
+        // zero-copy between two file channels
+        CHANNEL,
+        // copy through a buffer while computing the checksum, see ChecksumCopier
+        STREAM;
+
+        /**
+         *
+         * @param value value of the config option transferMode
+         * @return the matching Method, or STREAM if value is blank or unknown
+         */
+        static Method parse(String value) {
+            if (StringUtils.isBlank(value)) {
+                return STREAM;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid transfer mode '" + value + "', using stream instead.");
+                return STREAM;
+            }
+        }
+
+        /**
+         *
+         * @return true if the target shares its data blocks with the source, hence comparing their checksums is pointless
+         */
+        boolean sharesData() {
+            return this == LINK || this == REFLINK;
+        }
+    }
+
+    private static final long REFLINK_TIMEOUT_SECONDS = 60;
+    // bytes that are moved per call of transferTo if the bandwidth is limited
+    private static final long THROTTLED_CHUNK_SIZE = 1024 * 1024;
+
+    // file stores on which a clone failed once, so that cp is not started again for every single file
+    private static final Set<FileStore> NO_REFLINK = ConcurrentHashMap.newKeySet();
+
+    private FileTransfer() {
+        // only static methods
+    }
+
+    /**
+     *
+     * @param srcPath absolute path to the source file
+     * @param destPath absolute path to the target file, will be replaced if it already exists
+     * @param method configured transfer method
+     * @param sync true if the written data should be forced to the storage device before returning, false otherwise
+     * @param throttle TransferThrottle that limits the bandwidth of copies, links and clones are not limited since they move no data
+     * @return the method that was actually used, STREAM if the caller still has to copy the file itself
+     * @throws IOException
+     */
+    static Method transfer(Path srcPath, Path destPath, Method method, boolean sync, TransferThrottle throttle) throws IOException {
+        if (method == Method.STREAM) {
+            return Method.STREAM;
+        }
+        if (method != Method.CHANNEL) {
+            FileStore store = Files.getFileStore(srcPath);
+            if (store.equals(Files.getFileStore(destPath.getParent()))) {
+                if (method == Method.LINK && link(srcPath, destPath)) {
+                    return Method.LINK;
+                }
+                if (method != Method.LINK && reflink(srcPath, destPath, store)) {
+                    if (sync) {
+                        force(destPath);
+                    }
+                    return Method.REFLINK;
+                }
+            }
+        }
+        try {
+            transferTo(srcPath, destPath, sync, throttle);
+            return Method.CHANNEL;
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            log.debug("Failed to copy '" + srcPath + "' with FileChannel.transferTo, copying it as stream instead: " + e.getMessage());
+            return Method.STREAM;
+        }
+    }
+
+    private static boolean link(Path srcPath, Path destPath) {
+        try {
+            Files.deleteIfExists(destPath);
+            Files.createLink(destPath, srcPath);
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            log.debug("Failed to create a hard link for '" + srcPath + "': " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean reflink(Path srcPath, Path destPath, FileStore store) {
+        if (NO_REFLINK.contains(store)) {
+            return false;
+        }
+        // Java offers no API for cloning files, but GNU cp does it with FICLONE where the file system supports it
+        ProcessBuilder builder = new ProcessBuilder("cp", "--reflink=always", "--preserve=timestamps", srcPath.toString(), destPath.toString());
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        try {
+            Process cp = builder.start();
+            if (!cp.waitFor(REFLINK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                cp.destroyForcibly();
+                log.debug("Cloning '" + srcPath + "' timed out.");
+                return false;
+            }
+            if (cp.exitValue() == 0) {
+                return true;
+            }
+            log.debug("The file system '" + store.name() + "' does not support cloning files, using a different transfer method.");
+        } catch (IOException e) {
+            log.debug("Failed to clone '" + srcPath + "': " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        NO_REFLINK.add(store);
+        return false;
+    }
+
+    private static void transferTo(Path srcPath, Path destPath, boolean sync, TransferThrottle throttle) throws IOException {
+        try (FileChannel in = FileChannel.open(srcPath, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(destPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            // transferTo may move fewer bytes than requested, e.g. 2 GB at most per call on Linux
+            while (position < size) {
+                long count = throttle.isBandwidthLimited() ? Math.min(THROTTLED_CHUNK_SIZE, size - position) : size - position;
+                long transferred = in.transferTo(position, count, out);
+                if (transferred <= 0) {
+                    throw new IOException("The file '" + srcPath + "' was truncated while copying it.");
+                }
+                throttle.acquire(transferred);
+                position += transferred;
+            }
+            if (sync) {
+                out.force(true);
+            }
+        }
+        // keep the modification date of the original file
+        Files.setLastModifiedTime(destPath, Files.getLastModifiedTime(srcPath));
+    }
+
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+}
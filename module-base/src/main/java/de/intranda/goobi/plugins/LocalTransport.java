@@ -0,0 +1,489 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Process;
+import org.goobi.production.enums.LogType;
+
+import de.sub.goobi.helper.StorageProvider;
+import de.sub.goobi.helper.StorageProviderInterface;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * folder on a local disk or a mounted share
+ */
+@Log4j2
+final class LocalTransport extends AbstractTransport {
+
+    private final int copyThreads; // number of files that are copied in parallel
+    private final boolean verifyCopy; // false if the copies should be trusted after being synced to disk, without reading them again
+    private final FileDigest verifyDigest; // digest that compares the copies with the original files
+    private final FileTransfer.Method transferMode; // how the bytes of a file are moved
+
+    /**
+     * 
+     * @param config ZopExportConfig of the process
+     * @param metrics ExportMetrics of the export
+     * @param checksumCache ChecksumCache of the plugin
+     * @param journal Journal of the export
+     */
+    LocalTransport(ZopExportConfig config, ExportMetrics metrics, ChecksumCache checksumCache, Journal journal) {
+        super(config, metrics, checksumCache, journal);
+        copyThreads = config.getCopyThreads();
+        verifyCopy = config.isVerifyCopy();
+        verifyDigest = config.getVerifyDigest();
+        transferMode = config.getTransferMode();
+    }
+
+    @Override
+    public Type getType() {
+        return Type.LOCAL;
+    }
+
+    @Override
+    public String getThrottleTarget(Path path) {
+        return getPathRoot(path);
+    }
+
+    @Override
+    public boolean connect() {
+        return true;
+    }
+
+    @Override
+    public String describe(Path path) {
+        return path.toString();
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    @Override
+    public boolean isSharingData(List<ExportSource> sources, Path path) {
+        if (!transferMode.sharesData()) {
+            return false;
+        }
+        try {
+            Path existing = path;
+            while (existing != null && !Files.exists(existing)) {
+                existing = existing.getParent();
+            }
+            if (existing == null) {
+                return false;
+            }
+            FileStore store = Files.getFileStore(existing);
+            for (ExportSource source : sources) {
+                if (Files.exists(source.getPath()) && !store.equals(Files.getFileStore(source.getPath()))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            log.debug("Failed to compare the file systems of the sources and " + path.toString() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    protected Map<String, Long> getFileSizes(Path path) throws IOException {
+        Map<String, Long> sizes = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, Files::isRegularFile)) {
+            for (Path file : stream) {
+                sizes.put(file.getFileName().toString(), Files.size(file));
+            }
+        } catch (NoSuchFileException e) {
+            // the folder is created by the export
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+        return sizes;
+    }
+
+    @Override
+    public long getUsableSpace(Path path) {
+        for (Path existing = path; existing != null; existing = existing.getParent()) {
+            if (Files.exists(existing)) {
+                try {
+                    return Files.getFileStore(existing).getUsableSpace();
+                } catch (IOException e) {
+                    log.debug("Failed to read the usable space of " + existing.toString() + ": " + e.getMessage());
+                }
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 
+     * @param path absolute path of the local target folder
+     * @return the mount point and device of the file system the path is located on, or its first folder if that is unknown
+     */
+    private String getPathRoot(Path path) {
+        // the target folder itself may not exist yet
+        for (Path existing = path; existing != null; existing = existing.getParent()) {
+            if (Files.exists(existing)) {
+                try {
+                    return Files.getFileStore(existing).toString();
+                } catch (IOException e) {
+                    log.debug("Failed to find the file system of " + existing.toString() + ": " + e.getMessage());
+                }
+                break;
+            }
+        }
+        return path.getNameCount() > 0 ? path.getRoot() + path.getName(0).toString() : path.toString();
+    }
+
+    @Override
+    public boolean createFolder(Path path) {
+        if (path == null) {
+            log.error("The path provided is null!");
+            return false;
+        }
+        if (StringUtils.isBlank(path.toString())) {
+            log.error("The path provided is empty!");
+            return false;
+        }
+        StorageProviderInterface provider = StorageProvider.getInstance();
+        if (provider.isFileExists(path)) {
+            log.debug("Directory already exisits: " + path.toString());
+            return true;
+        }
+        try {
+            provider.createDirectories(path);
+            log.debug("Directory created: " + path.toString());
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to create directory: " + path.toString());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean copy(Process process, List<ExportSource> sources, Path toPath) {
+        StorageProviderInterface provider = StorageProvider.getInstance();
+        Path workPath = staging ? getStagingPath(toPath) : toPath;
+        if (staging) {
+            // a published folder can not be replaced by a single rename
+            if (provider.isFileExists(toPath) && !provider.list(toPath.toString()).isEmpty()) {
+                logBoth(process.getId(), LogType.ERROR, "The directory: '" + toPath.toString() + "' already exists and is not empty!");
+                logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+                return false;
+            }
+        } else if (checkIfPathEmpty && !resume && !provider.list(toPath.toString()).isEmpty()) {
+            // when resuming, the directory is expected to contain the files of the previous attempt
+            logBoth(process.getId(), LogType.ERROR, "The directory: '" + toPath.toString() + "' is not empty!");
+            logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+            return false;
+        }
+        // if the folder is empty, great!
+        try {
+            if (staging) {
+                prepareStaging(toPath, workPath);
+            }
+            long phaseStart = System.nanoTime();
+            Map<String, Path> skippedFiles = copyImages(sources, workPath);
+            metrics.endPhase(ExportMetrics.PHASE_TRANSFER, phaseStart);
+            if (writeManifest) {
+                phaseStart = System.nanoTime();
+                createManifest(toPath, skippedFiles);
+                metrics.endPhase(ExportMetrics.PHASE_MANIFEST, phaseStart);
+            }
+            if (staging) {
+                phaseStart = System.nanoTime();
+                Files.move(workPath, toPath, StandardCopyOption.ATOMIC_MOVE);
+                log.debug("Published the staged directory as: " + toPath.toString());
+                metrics.endPhase(ExportMetrics.PHASE_PUBLISH, phaseStart);
+            }
+            phaseStart = System.nanoTime();
+            createCTL(toPath);
+            metrics.endPhase(ExportMetrics.PHASE_CREATE_CTL, phaseStart);
+
+        } catch (IOException e) {
+            logBoth(process.getId(), LogType.ERROR,
+                    "Errors happened trying to copy from '" + SourceFiles.describe(sources) + "' to '" + toPath.toString() + "'.");
+            logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+            return false;
+        }
+        logBoth(process.getId(), LogType.INFO,
+                "Images from '" + SourceFiles.describe(sources) + "' are successfully copied to '" + toPath.toString() + "'.");
+        logBoth(process.getId(), LogType.INFO, ZopExportPlugin.COMPLETION_MESSAGE + process.getId());
+        return true;
+    }
+
+    /**
+     * remove an empty target folder, since it would block the rename, and create the staging folder
+     * 
+     * @param path absolute path of the target folder
+     * @param stagingPath absolute path of the staging folder
+     * @throws IOException
+     */
+    private void prepareStaging(Path path, Path stagingPath) throws IOException {
+        StorageProviderInterface provider = StorageProvider.getInstance();
+        if (provider.isFileExists(path)) {
+            Files.delete(path);
+        }
+        if (provider.isFileExists(stagingPath) && !resume) {
+            // left by an attempt that was interrupted, the files are only reused when resuming
+            log.debug("Removing the staged directory of a previous attempt: " + stagingPath.toString());
+            provider.deleteInDir(stagingPath);
+            provider.deleteDir(stagingPath);
+        }
+        provider.createDirectories(stagingPath);
+        log.debug("Staging directory: " + stagingPath.toString());
+    }
+
+    /**
+     * copy the files of the sources into the target folder, without the manifest and the .ctl file
+     * 
+     * @param sources resolved ExportSources
+     * @param toPath absolute path to the targeted folder
+     * @return absolute paths of the files that were already delivered and are not part of the manifest yet, mapped by their relative paths
+     *         inside the target folder, empty if no manifest is written
+     * @throws IOException
+     */
+    Map<String, Path> copyImages(List<ExportSource> sources, Path toPath) throws IOException {
+        log.debug("Copy images from '" + SourceFiles.describe(sources) + "' to '" + toPath.toString() + "'.");
+        Map<String, Path> skippedFiles = new ConcurrentHashMap<>();
+        AtomicInteger skippedCount = new AtomicInteger();
+        SourceFiles.Visitor<IOException> copy = (srcPath, targetName) -> {
+            Path destPath = toPath.resolve(targetName);
+            if (resume && isDelivered(srcPath, destPath)) {
+                skipFile(skippedFiles, skippedCount, srcPath, targetName);
+            } else {
+                copyFile(srcPath, destPath, targetName);
+            }
+        };
+
+        int files;
+        try {
+            for (ExportSource source : sources) {
+                if (!source.getTarget().isEmpty()) {
+                    Files.createDirectories(toPath.resolve(source.getTarget()));
+                }
+            }
+            if (copyThreads > 1) {
+                log.debug("Copy the files using " + copyThreads + " threads.");
+                files = forEachFileParallel(sources, copyThreads, copy::visit);
+            } else {
+                files = SourceFiles.forEach(sources, copy);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            IOException exception = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            deleteCopiedFiles(toPath);
+            throw exception;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            deleteCopiedFiles(toPath);
+            throw new IOException("Interrupted while copying images.", e);
+        } catch (IOException e) {
+            deleteCopiedFiles(toPath);
+            throw e;
+        }
+        if (resume) {
+            log.debug(skippedCount.get() + " of " + files + " files were already delivered and have been skipped.");
+        }
+        return skippedFiles;
+    }
+
+    /**
+     * 
+     * @param toPath absolute path to the targeted folder
+     * @throws IOException
+     */
+    private void deleteCopiedFiles(Path toPath) throws IOException {
+        if (resume) {
+            log.debug("Already copied contents are kept, so that the export can be resumed.");
+            return;
+        }
+        // if one file could not be copied, delete the already copied contents
+        log.debug("Already copied contents will be deleted.");
+        StorageProviderInterface provider = StorageProvider.getInstance();
+        provider.deleteInDir(toPath);
+        provider.deleteDir(toPath);
+    }
+
+    /**
+     * 
+     * @param srcPath absolute path to the source file
+     * @param destPath absolute path to the target file
+     * @return true if the target file exists and equals the source file in size and modification date
+     * @throws IOException
+     */
+    private boolean isDelivered(Path srcPath, Path destPath) throws IOException {
+        return Files.exists(destPath) && Files.size(srcPath) == Files.size(destPath)
+                && isSameModificationTime(Files.getLastModifiedTime(srcPath).toMillis(), Files.getLastModifiedTime(destPath).toMillis());
+    }
+
+    /**
+     * copy a single file and compare the checksums of the original file and the copy, retry once if they differ
+     * 
+     * @param srcPath absolute path to the source file
+     * @param destPath absolute path to the target file
+     * @param name relative path of the target file inside the target folder, used for the manifest
+     * @throws IOException if the checksums still differ after the retry
+     */
+    private void copyFile(Path srcPath, Path destPath, String name) throws IOException {
+        throttle.acquireSlot();
+        try {
+            copyAndVerifyFile(srcPath, destPath, name);
+        } finally {
+            throttle.releaseSlot();
+        }
+    }
+
+    /**
+     * 
+     * @param srcPath absolute path to the source file
+     * @param destPath absolute path to the target file
+     * @param name relative path of the target file inside the target folder, used for the manifest
+     * @throws IOException if the checksums still differ after the retry
+     */
+    private void copyAndVerifyFile(Path srcPath, Path destPath, String name) throws IOException {
+        // if the copy should not be verified, then the written data is forced to disk instead
+        FileTransfer.Method method = FileTransfer.transfer(srcPath, destPath, transferMode, !verifyCopy, throttle);
+        long size = Files.size(srcPath);
+        metrics.addFile(size);
+        if (method.sharesData()) {
+            // links and clones share their data with the original file, hence it is only read if the manifest needs its checksum
+            addToManifest(srcPath, name, size, null);
+            return;
+        }
+        String fromChecksum = null;
+        String sha256 = null;
+        if (method == FileTransfer.Method.STREAM) {
+            // the checksums of the original file are computed while copying it, hence it is only read once
+            FileDigest[] digests = getStreamDigests();
+            String version = checksumCache.getVersion(srcPath);
+            String[] checksums = ChecksumCopier.copy(srcPath, destPath, !verifyCopy, throttle, pipeline, digests);
+            checksumCache.put(srcPath, version, digests, checksums);
+            fromChecksum = checksums[0];
+            if (digests[digests.length - 1].isPlainSha256()) {
+                sha256 = checksums[digests.length - 1];
+            }
+        } else if (verifyCopy) {
+            // the bytes did not pass through the heap, so the original file has to be read for the verification unless it is unchanged
+            fromChecksum = checksumCache.checksum(srcPath, verifyDigest);
+            if (verifyDigest.isPlainSha256()) {
+                sha256 = fromChecksum;
+            }
+        }
+        addToManifest(srcPath, name, size, sha256);
+        if (!verifyCopy) {
+            return;
+        }
+
+        // get the checksum of the copy and compare it with the original one
+        // if they are not equal, then something went wrong during the copy process of this file
+        long verifyStart = System.nanoTime();
+        String toChecksum = verifyDigest.checksum(destPath);
+        metrics.addVerification(verifyStart);
+        if (!fromChecksum.equals(toChecksum)) {
+            // retry once
+            StorageProvider.getInstance().deleteFile(destPath);
+            ChecksumCopier.copy(srcPath, destPath, false, throttle, pipeline);
+            toChecksum = verifyDigest.checksum(destPath);
+            // if still not equal, remove the broken copy and throw an IOException
+            if (!fromChecksum.equals(toChecksum)) {
+                log.error("Checksum check failed twice while trying to copy the file: '" + srcPath.toString() + "'");
+                log.debug("checksum original = " + fromChecksum);
+                log.debug("checksum after copy = " + toChecksum);
+                StorageProvider.getInstance().deleteFile(destPath);
+                throw new IOException("Checksum check failed twice!");
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param srcPath absolute path to the source file
+     * @param name relative path of the target file inside the target folder
+     * @param size size of the source file in bytes
+     * @param sha256 SHA-256 checksum that was computed during the copy, null if the file has to be read for it
+     * @throws IOException
+     */
+    private void addToManifest(Path srcPath, String name, long size, String sha256) throws IOException {
+        if (writeManifest) {
+            manifest.add(name, size, sha256 != null ? sha256 : checksumCache.checksum(srcPath, FileDigest.SHA_256));
+        }
+    }
+
+    /**
+     * 
+     * @return the FileDigests that are computed while copying a file: the one of the verification first, followed by SHA-256 for the
+     *         manifest if they differ
+     */
+    private FileDigest[] getStreamDigests() {
+        if (!verifyCopy || verifyDigest.isPlainSha256()) {
+            return new FileDigest[] { FileDigest.SHA_256 };
+        }
+        return writeManifest ? new FileDigest[] { verifyDigest, FileDigest.SHA_256 } : new FileDigest[] { verifyDigest };
+    }
+
+    /**
+     * 
+     * @param path whose folderName and parent will be used
+     * @param skippedFiles absolute paths of the files that were already delivered by a previous attempt, mapped by their relative paths
+     * @throws IOException
+     */
+    private void createManifest(Path path, Map<String, Path> skippedFiles) throws IOException {
+        // the manifest is created next to the folder, just like the .ctl file
+        Path manifestPath = path.getParent().resolve(ChecksumManifest.getFileName(path.getFileName().toString()));
+        Path sizesPath = path.getParent().resolve(ChecksumManifest.getSizesFileName(path.getFileName().toString()));
+        ChecksumManifest previousManifest = null;
+        if (resume && Files.exists(manifestPath) && Files.exists(sizesPath)) {
+            try (InputStream in = Files.newInputStream(manifestPath); InputStream sizesIn = Files.newInputStream(sizesPath)) {
+                previousManifest = ChecksumManifest.read(in, sizesIn);
+            }
+        }
+        completeManifest(skippedFiles, previousManifest);
+        try (OutputStream out = Files.newOutputStream(sizesPath)) {
+            manifest.writeSizes(out);
+        }
+        try (OutputStream out = Files.newOutputStream(manifestPath)) {
+            manifest.writeChecksums(out);
+        }
+    }
+
+    /**
+     * 
+     * @param path whose folderName and parent will be used
+     * @throws IOException
+     */
+    private void createCTL(Path path) throws IOException {
+        // the .ctl file should have the same name as the folder specified by this path
+        String fileName = path.getFileName().toString().concat(".ctl");
+        // and it should be created next to the folder, i.e. into the folder's parent's path
+        Path parentPath = path.getParent();
+        if (resume && Files.exists(parentPath.resolve(fileName))) {
+            log.debug("The .ctl file already exists: " + parentPath.resolve(fileName).toString());
+            return;
+        }
+        try {
+            Files.createFile(parentPath.resolve(fileName));
+        } catch (IOException e) {
+            log.debug("Some error happened while trying to create the .ctl file.");
+            throw e;
+        }
+    }
+
+}
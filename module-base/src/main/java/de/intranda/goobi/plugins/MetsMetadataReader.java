@@ -0,0 +1,171 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Reads the identifier and the volume metadata of a Goobi METS file with a streaming parser, without building the whole DigitalDocument.
+ * Only the metadata of the requested fields is kept, so that memory and time stay small even for METS files with thousands of pages.
+ */
+@Log4j2
+final class MetsMetadataReader {
+
+    private static final String ANCHOR_FILE_NAME = "meta_anchor.xml";
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private MetsMetadataReader() {
+        // only static methods
+    }
+
+    /**
+     *
+     * @param metsFile path to the meta.xml file of the process
+     * @param fieldIdentifier name of the metadata that contains the identifier
+     * @param fieldVolume name of the metadata that distinguishes the volumes of a multi-volume work
+     * @return Result containing the values found, or null if the file could not be interpreted and needs to be read completely
+     */
+    static Result read(Path metsFile, String fieldIdentifier, String fieldVolume) {
+        try {
+            LogicalStructure structure = parse(metsFile, fieldIdentifier, fieldVolume);
+            if (structure.topDmdId == null && !structure.topIsAnchor) {
+                return null;
+            }
+            if (!structure.topIsAnchor) {
+                return new Result(false, structure.getValue(structure.topDmdId, fieldIdentifier), "");
+            }
+
+            // the metadata of the anchor is stored in a separate file next to meta.xml
+            String identifier = structure.getValue(structure.topDmdId, fieldIdentifier);
+            Path anchorFile = metsFile.resolveSibling(ANCHOR_FILE_NAME);
+            if (StringUtils.isBlank(identifier) && Files.exists(anchorFile)) {
+                LogicalStructure anchor = parse(anchorFile, fieldIdentifier, fieldVolume);
+                identifier = anchor.getValue(anchor.topDmdId, fieldIdentifier);
+            }
+            return new Result(true, identifier, structure.getValue(structure.firstChildDmdId, fieldVolume));
+        } catch (IOException | XMLStreamException e) {
+            log.debug("Failed to read the METS file with the streaming parser: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static LogicalStructure parse(Path file, String fieldIdentifier, String fieldVolume) throws IOException, XMLStreamException {
+        LogicalStructure structure = new LogicalStructure();
+        try (InputStream in = Files.newInputStream(file)) {
+            XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+            try {
+                String currentDmdId = null;
+                int groupDepth = 0; // metadata inside of groups does not belong to the structure element itself
+                boolean inLogicalStructMap = false;
+                int divDepth = 0;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if ("dmdSec".equals(name)) {
+                            currentDmdId = reader.getAttributeValue(null, "ID");
+                        } else if (currentDmdId != null && isGoobiElement(reader) && "metadata".equals(name)) {
+                            if ("group".equals(reader.getAttributeValue(null, "type"))) {
+                                groupDepth++;
+                            } else if (groupDepth == 0) {
+                                String field = reader.getAttributeValue(null, "name");
+                                if (fieldIdentifier.equals(field) || fieldVolume.equals(field)) {
+                                    structure.addValue(currentDmdId, field, reader.getElementText());
+                                }
+                            }
+                        } else if ("structMap".equals(name)) {
+                            inLogicalStructMap = "LOGICAL".equals(reader.getAttributeValue(null, "TYPE"));
+                        } else if (inLogicalStructMap && "div".equals(name)) {
+                            divDepth++;
+                            if (divDepth == 1) {
+                                structure.topDmdId = reader.getAttributeValue(null, "DMDID");
+                            } else if (divDepth == 2 && !structure.hasFirstChild) {
+                                structure.hasFirstChild = true;
+                                structure.firstChildDmdId = reader.getAttributeValue(null, "DMDID");
+                            }
+                        } else if (inLogicalStructMap && divDepth == 1 && "mptr".equals(name)) {
+                            // a pointer to another METS file marks the top structure element as anchor
+                            structure.topIsAnchor = true;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if ("dmdSec".equals(name)) {
+                            currentDmdId = null;
+                            groupDepth = 0;
+                        } else if (groupDepth > 0 && isGoobiElement(reader) && "metadata".equals(name)) {
+                            groupDepth--;
+                        } else if (inLogicalStructMap && "div".equals(name)) {
+                            divDepth--;
+                        } else if ("structMap".equals(name)) {
+                            if (inLogicalStructMap) {
+                                // everything needed is known now
+                                break;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return structure;
+    }
+
+    private static boolean isGoobiElement(XMLStreamReader reader) {
+        String namespace = reader.getNamespaceURI();
+        return namespace != null && namespace.contains("goobi");
+    }
+
+    @Getter
+    static final class Result {
+        // true if the work is composed of several volumes
+        private final boolean anchor;
+        private final String identifier;
+        private final String volume;
+
+        private Result(boolean anchor, String identifier, String volume) {
+            this.anchor = anchor;
+            this.identifier = StringUtils.trimToEmpty(identifier);
+            this.volume = StringUtils.trimToEmpty(volume);
+        }
+    }
+
+    private static final class LogicalStructure {
+        private final Map<String, Map<String, String>> values = new HashMap<>();
+        private String topDmdId;
+        private boolean topIsAnchor;
+        private boolean hasFirstChild;
+        private String firstChildDmdId;
+
+        private void addValue(String dmdId, String field, String value) {
+            // only the first occurrence of a field is used, just like for the full METS file
+            values.computeIfAbsent(dmdId, k -> new HashMap<>()).putIfAbsent(field, value);
+        }
+
+        private String getValue(String dmdId, String field) {
+            if (dmdId == null) {
+                return "";
+            }
+            return values.getOrDefault(dmdId, Map.of()).getOrDefault(field, "");
+        }
+    }
+
+}
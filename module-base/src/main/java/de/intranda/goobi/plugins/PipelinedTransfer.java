@@ -0,0 +1,234 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+
+/**
+ * Transfers a file with a reader stage and a writer stage, so that reading the next part of the source overlaps with writing the current one
+ * to the target. The reader runs on a separate thread and fills at most bufferCount buffers ahead of the writer, which runs on the calling
+ * thread and also updates the digests. The buffers are taken from pools that are shared by all transfers, hence no buffer is allocated per
+ * file once the pools are warm. Targets that are channels get direct buffers, targets that are streams such as SFTP uploads and TAR
+ * archives get heap buffers, since they need arrays anyway.
+ */
+@Getter
+final class PipelinedTransfer {
+
+    /**
+     * four buffers of 1 MB
+     */
+    static final PipelinedTransfer DEFAULT = new PipelinedTransfer(4, 1024 * 1024);
+
+    private static final ExecutorService READER_EXECUTOR = createExecutor();
+    private static final Map<String, Queue<ByteBuffer>> POOLS = new ConcurrentHashMap<>();
+    // passed from the reader to the writer after the last buffer
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    // maximum number of buffers that are read ahead of the writer
+    private final int bufferCount;
+    // size of every buffer in bytes
+    private final int bufferSize;
+
+    PipelinedTransfer(int bufferCount, int bufferSize) {
+        this.bufferCount = Math.max(1, bufferCount);
+        this.bufferSize = Math.max(4096, bufferSize);
+    }
+
+    /**
+     *
+     * @param srcPath absolute path to the source file
+     * @param out WritableByteChannel the file is written to, it will not be closed
+     * @param throttle TransferThrottle that limits the bandwidth of reading the file
+     * @param digests FileDigests that are computed over the bytes of the file
+     * @return the checksums of the bytes as hex strings, in the order of digests
+     * @throws IOException
+     */
+    String[] copy(Path srcPath, WritableByteChannel out, TransferThrottle throttle, FileDigest... digests) throws IOException {
+        return copy(srcPath, true, throttle, digests, buffer -> {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        });
+    }
+
+    /**
+     *
+     * @param srcPath absolute path to the source file
+     * @param out OutputStream the file is written to, it will not be closed
+     * @param throttle TransferThrottle that limits the bandwidth of reading the file
+     * @param digests FileDigests that are computed over the bytes of the file
+     * @return the checksums of the bytes as hex strings, in the order of digests
+     * @throws IOException
+     */
+    String[] copy(Path srcPath, OutputStream out, TransferThrottle throttle, FileDigest... digests) throws IOException {
+        return copy(srcPath, false, throttle, digests, buffer -> {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        });
+    }
+
+    private String[] copy(Path srcPath, boolean direct, TransferThrottle throttle, FileDigest[] digests, Sink sink) throws IOException {
+        FileDigest.Stream[] streams = new FileDigest.Stream[digests.length];
+        for (int i = 0; i < digests.length; i++) {
+            streams[i] = digests[i].newStream();
+        }
+        Queue<ByteBuffer> pool = POOLS.computeIfAbsent(bufferSize + (direct ? "d" : "h"), k -> new ConcurrentLinkedQueue<>());
+        Pipe pipe = new Pipe();
+        for (int i = 0; i < bufferCount; i++) {
+            ByteBuffer buffer = pool.poll();
+            pipe.free.add(buffer != null ? buffer : direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize));
+        }
+        try (FileChannel in = FileChannel.open(srcPath, StandardOpenOption.READ)) {
+            READER_EXECUTOR.execute(() -> pipe.read(in, throttle));
+            ByteBuffer buffer = null;
+            try {
+                while ((buffer = pipe.filled.take()) != END) {
+                    for (FileDigest.Stream stream : streams) {
+                        stream.update(buffer.duplicate());
+                    }
+                    sink.write(buffer);
+                    buffer.clear();
+                    pipe.free.add(buffer);
+                    buffer = null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while copying " + srcPath);
+            } finally {
+                // after END the reader is done already
+                if (buffer != END) {
+                    if (buffer != null) {
+                        buffer.clear();
+                        pipe.free.add(buffer);
+                    }
+                    pipe.stop();
+                }
+            }
+            if (pipe.failure != null) {
+                throw pipe.failure;
+            }
+        } finally {
+            // all buffers are back once the reader stopped
+            List<ByteBuffer> buffers = new ArrayList<>();
+            pipe.free.drainTo(buffers);
+            pool.addAll(buffers);
+        }
+        String[] checksums = new String[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            checksums[i] = streams[i].finish();
+        }
+        return checksums;
+    }
+
+    private static ExecutorService createExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "zop-export-reader-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * writer stage
+     */
+    @FunctionalInterface
+    private interface Sink {
+        /**
+         *
+         * @param buffer ByteBuffer whose remaining bytes should be written completely
+         * @throws IOException
+         */
+        void write(ByteBuffer buffer) throws IOException;
+    }
+
+    /**
+     * buffers of a single transfer that are passed between the reader and the writer
+     */
+    private final class Pipe {
+
+        private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(bufferCount);
+        // one more slot for END
+        private final BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(bufferCount + 1);
+        private volatile boolean stopped;
+        private volatile IOException failure;
+
+        /**
+         * reader stage, fills the free buffers completely until the end of the file is reached
+         */
+        private void read(FileChannel in, TransferThrottle throttle) {
+            try {
+                boolean endOfFile = false;
+                while (!endOfFile && !stopped) {
+                    ByteBuffer buffer = free.take();
+                    while (buffer.hasRemaining()) {
+                        if (in.read(buffer) < 0) {
+                            endOfFile = true;
+                            break;
+                        }
+                    }
+                    buffer.flip();
+                    throttle.acquire(buffer.remaining());
+                    if (buffer.hasRemaining()) {
+                        filled.add(buffer);
+                    } else {
+                        buffer.clear();
+                        free.add(buffer);
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                failure = new InterruptedIOException("Interrupted while reading the file.");
+            } catch (RuntimeException | Error e) {
+                failure = new IOException("Failed to read the file.", e);
+            } finally {
+                filled.add(END);
+            }
+        }
+
+        /**
+         * stop the reader after the writer failed, and wait until it returned all buffers
+         */
+        private void stop() {
+            stopped = true;
+            boolean interrupted = false;
+            ByteBuffer buffer = null;
+            while (buffer != END) {
+                try {
+                    buffer = filled.take();
+                } catch (InterruptedException e) {
+                    // the buffers must not be lost, the interrupt is restored afterwards
+                    interrupted = true;
+                    continue;
+                }
+                if (buffer != END) {
+                    buffer.clear();
+                    free.add(buffer);
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
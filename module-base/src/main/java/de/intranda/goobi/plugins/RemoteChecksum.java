@@ -0,0 +1,131 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Computes the SHA-256 checksum of a remote file by running sha256sum in an exec channel of the SSH session that is used for the upload.
+ * Hosts that only permit SFTP, or that lack sha256sum, are recognized by the exit status and the error output of the command, any other
+ * failure only concerns the file at hand.
+ */
+@Log4j2
+final class RemoteChecksum {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+    private static final long POLL_INTERVAL_MILLIS = 10;
+
+    private RemoteChecksum() {
+        // only static methods
+    }
+
+    /**
+     *
+     * @param session connected Session to the remote host
+     * @param remotePath absolute path to the remote file
+     * @return the SHA-256 checksum of the remote file as lower case hex string, or null if the remote host can not compute it
+     * @throws JSchException if the exec channel could not be opened
+     * @throws IOException if the output of the command could not be read, the command did not finish in time or failed for this file
+     */
+    static String sha256(Session session, String remotePath) throws JSchException, IOException {
+        ChannelExec channel = (ChannelExec) session.openChannel("exec");
+        try {
+            channel.setCommand("sha256sum -b -- " + quote(remotePath));
+            channel.setInputStream(null);
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            channel.setErrStream(err);
+            InputStream in = channel.getInputStream();
+            channel.connect(CONNECT_TIMEOUT_MILLIS);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            // a stalled command would block read forever, hence the output is polled until the channel is closed, which sets the exit status
+            while (true) {
+                if (in.available() > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, in.available()));
+                    if (read > 0) {
+                        out.write(buffer, 0, read);
+                        continue;
+                    }
+                }
+                if (channel.isClosed() && in.available() <= 0) {
+                    break;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Timed out computing the checksum of " + remotePath);
+                }
+                try {
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while computing the checksum of " + remotePath);
+                }
+            }
+            int exitStatus = channel.getExitStatus();
+            String checksum = exitStatus == 0 ? parse(out.toString(StandardCharsets.UTF_8)) : null;
+            if (checksum != null) {
+                return checksum;
+            }
+            String errorOutput = StringUtils.trimToEmpty(err.toString(StandardCharsets.UTF_8));
+            if (isUnavailable(exitStatus, errorOutput)) {
+                log.debug("sha256sum is not available, exit status " + exitStatus + " for " + remotePath + ": " + errorOutput);
+                return null;
+            }
+            // e.g. a locked file or an I/O error, the next file may succeed
+            throw new IOException("sha256sum failed with exit status " + exitStatus + " for " + remotePath + ": " + errorOutput);
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     *
+     * @param exitStatus exit status of the command, -1 if the channel was closed without one
+     * @param errorOutput error output of the command
+     * @return true if the remote host can not run sha256sum at all, false if the command only failed for a single file
+     */
+    static boolean isUnavailable(int exitStatus, String errorOutput) {
+        // the shell exits with 126 if a command may not be executed and with 127 if it is not found
+        if (exitStatus == 126 || exitStatus == 127 || StringUtils.containsIgnoreCase(errorOutput, "command not found")) {
+            return true;
+        }
+        // hosts that only permit SFTP may replace the command with their own, which succeeds without printing a checksum
+        return exitStatus == 0;
+    }
+
+    /**
+     *
+     * @param output output of sha256sum, e.g. <code>e3b0c442...b855 *file.tif</code>
+     * @return the checksum in lower case, or null if the output does not start with one
+     */
+    static String parse(String output) {
+        String checksum = StringUtils.substringBefore(StringUtils.trimToEmpty(output), " ").toLowerCase(Locale.ROOT);
+        // filenames with special characters make sha256sum prefix its output with a backslash
+        checksum = StringUtils.removeStart(checksum, "\\");
+        return checksum.matches("[0-9a-f]{64}") ? checksum : null;
+    }
+
+    /**
+     *
+     * @param value string that should be passed as a single argument to the remote shell
+     * @return the value in single quotes, single quotes inside are escaped
+     */
+    static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+}
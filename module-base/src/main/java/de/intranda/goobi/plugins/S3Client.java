@@ -0,0 +1,742 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Minimal client for S3 compatible object storages like AWS S3, MinIO or Ceph, covering only the requests the export needs. The requests
+ * are signed with AWS Signature Version 4 and sent with the HttpClient of the JDK, so that no SDK has to be shipped with the plugin. Files
+ * larger than one part are sent as multipart uploads whose parts are uploaded in parallel and retried on their own. Every object and every
+ * part is sent with its MD5 digest, which the storage checks before accepting it, and the returned ETags are compared with the expected
+ * ones. At most threads uploads are sent at the same time by all exports that share an instance, which also limits the number of parts
+ * that are kept in memory.
+ */
+@Log4j2
+@Getter
+final class S3Client {
+
+    /**
+     * smallest size of a part that S3 accepts, except for the last one
+     */
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    /**
+     * largest size of a part that S3 accepts
+     */
+    static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+
+    /**
+     * name of the user metadata that keeps the modification date of the original file in milliseconds
+     */
+    static final String META_MTIME = "x-amz-meta-mtime";
+
+    private static final int MAX_PARTS = 10000;
+    // a part is read into a single array, which can not be larger than this
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 500;
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(10);
+    // shared by all uploads, the number of parts that are sent at the same time is limited by the requests of every client
+    private static final ExecutorService PART_EXECUTOR = createExecutor();
+
+    private final URI endpoint;
+    private final String region;
+    private final String bucket;
+    private final String accessKey;
+    @Getter(AccessLevel.NONE)
+    private final String secretKey;
+    // true if the bucket is part of the path instead of the host name, as most local installations like MinIO expect it
+    private final boolean pathStyle;
+    // size of the parts of multipart uploads in bytes
+    private final int partSize;
+    // maximum number of objects and parts that are uploaded at the same time
+    private final int threads;
+    @Getter(AccessLevel.NONE)
+    private final HttpClient httpClient;
+    @Getter(AccessLevel.NONE)
+    private final Semaphore requests;
+    // buffers of partSize bytes for the parts of multipart uploads that are not in use
+    @Getter(AccessLevel.NONE)
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+
+    S3Client(String endpoint, String region, String bucket, String accessKey, String secretKey, boolean pathStyle, long partSize, int threads) {
+        this.endpoint = URI.create(StringUtils.removeEnd(endpoint.trim(), "/"));
+        String scheme = this.endpoint.getScheme();
+        if (this.endpoint.getHost() == null || !"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+            throw new IllegalArgumentException("The endpoint has to be an http or https URL.");
+        }
+        this.region = StringUtils.isBlank(region) ? "us-east-1" : region;
+        this.bucket = bucket;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.pathStyle = pathStyle;
+        this.partSize = (int) Math.min(Math.max(MIN_PART_SIZE, partSize), MAX_BUFFER_SIZE);
+        this.threads = Math.max(1, threads);
+        this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(30)).build();
+        this.requests = new Semaphore(this.threads, true);
+    }
+
+    /**
+     *
+     * @param path absolute or relative path
+     * @return the names of the path joined by slashes, without a leading slash, as it is used for the keys of the objects
+     */
+    static String toKey(Path path) {
+        StringJoiner key = new StringJoiner("/");
+        for (Path name : path) {
+            key.add(name.toString());
+        }
+        return key.toString();
+    }
+
+    /**
+     *
+     * @param key key of an object or a prefix
+     * @return the bucket and the key in the form s3://bucket/key
+     */
+    String describe(String key) {
+        return "s3://" + bucket + "/" + key;
+    }
+
+    /**
+     *
+     * @param key key of the object
+     * @return size and modification date of the object, or null if it does not exist
+     * @throws IOException
+     */
+    ObjectInfo headObject(String key) throws IOException {
+        return withRetry("HEAD " + key, () -> {
+            HttpResponse<byte[]> response = send("HEAD", key, Collections.emptyMap(), Collections.emptyMap(), null);
+            if (response.statusCode() == 404) {
+                return null;
+            }
+            check(response, "HEAD " + key);
+            long size = response.headers().firstValueAsLong("content-length").orElse(-1);
+            String mtime = response.headers().firstValue(META_MTIME).orElse("");
+            return new ObjectInfo(size, StringUtils.isNumeric(mtime) ? Long.parseLong(mtime) : -1, getETag(response));
+        });
+    }
+
+    /**
+     *
+     * @param key key of the object
+     * @return the content of the object, or null if it does not exist
+     * @throws IOException
+     */
+    byte[] getObject(String key) throws IOException {
+        return withRetry("GET " + key, () -> {
+            HttpResponse<byte[]> response = send("GET", key, Collections.emptyMap(), Collections.emptyMap(), null);
+            if (response.statusCode() == 404) {
+                return null;
+            }
+            check(response, "GET " + key);
+            return response.body();
+        });
+    }
+
+    /**
+     *
+     * @param prefix prefix of the keys
+     * @return true if at least one object exists whose key starts with prefix
+     * @throws IOException
+     */
+    boolean hasObjects(String prefix) throws IOException {
+        Map<String, String> query = new TreeMap<>();
+        query.put("list-type", "2");
+        query.put("max-keys", "1");
+        query.put("prefix", prefix);
+        return withRetry("LIST " + prefix, () -> {
+            HttpResponse<byte[]> response = send("GET", "", query, Collections.emptyMap(), null);
+            check(response, "LIST " + prefix);
+            return new String(response.body(), StandardCharsets.UTF_8).contains("<Contents>");
+        });
+    }
+
+    /**
+     * upload a small object that is kept in memory, e.g. the manifest or the .ctl file
+     *
+     * @param key key of the object
+     * @param content content of the object
+     * @throws IOException if the upload fails or the storage returns an unexpected ETag
+     */
+    void putObject(String key, byte[] content) throws IOException {
+        acquireRequest();
+        try {
+            putObject(key, content, content.length, Collections.emptyMap());
+        } finally {
+            requests.release();
+        }
+    }
+
+    /**
+     * upload a file as a single object, or as a multipart upload if it is larger than one part
+     *
+     * @param key key of the object
+     * @param srcPath absolute path to the source file
+     * @param throttle TransferThrottle that limits the bandwidth of reading the file
+     * @return the ETag of the object
+     * @throws IOException if the upload fails or the storage returns an unexpected ETag
+     */
+    String upload(String key, Path srcPath, TransferThrottle throttle) throws IOException {
+        long size = Files.size(srcPath);
+        // resumed exports recognize complete uploads by their size and modification date
+        Map<String, String> metadata = Collections.singletonMap(META_MTIME, String.valueOf(Files.getLastModifiedTime(srcPath).toMillis()));
+        if (size > partSize) {
+            return uploadMultipart(key, srcPath, size, metadata, throttle);
+        }
+        acquireRequest();
+        try (FileChannel channel = FileChannel.open(srcPath, StandardOpenOption.READ)) {
+            // most files are much smaller than a part, hence the buffer is not taken from the pool of the parts
+            byte[] buffer = new byte[(int) size];
+            int length = readFully(channel, 0, buffer, buffer.length);
+            throttle.acquire(length);
+            return putObject(key, buffer, length, metadata);
+        } finally {
+            requests.release();
+        }
+    }
+
+    private String putObject(String key, byte[] content, int length, Map<String, String> metadata) throws IOException {
+        byte[] md5 = md5(content, length);
+        Map<String, String> headers = new TreeMap<>(metadata);
+        headers.put("content-md5", Base64.getEncoder().encodeToString(md5));
+        return withRetry("PUT " + key, () -> {
+            HttpResponse<byte[]> response = send("PUT", key, Collections.emptyMap(), headers, ByteBuffer.wrap(content, 0, length));
+            check(response, "PUT " + key);
+            return checkETag(response, Hex.encodeHexString(md5), key);
+        });
+    }
+
+    private String uploadMultipart(String key, Path srcPath, long size, Map<String, String> metadata, TransferThrottle throttle)
+            throws IOException {
+        // very large files need larger parts, since the number of parts is limited
+        long partLength = Math.max(partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+        int partCount = (int) ((size + partLength - 1) / partLength);
+        String uploadId = createMultipartUpload(key, metadata);
+        log.debug("Uploading " + srcPath + " to " + describe(key) + " in " + partCount + " parts.");
+
+        List<Future<byte[]>> parts = new ArrayList<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        boolean completed = false;
+        try (FileChannel channel = FileChannel.open(srcPath, StandardOpenOption.READ)) {
+            try {
+                for (int i = 0; i < partCount && !failed.get(); i++) {
+                    int partNumber = i + 1;
+                    long position = i * partLength;
+                    int length = (int) Math.min(partLength, size - position);
+                    // the permit is taken before the task is submitted, so that only as many parts are read as can be sent
+                    acquireRequest();
+                    try {
+                        parts.add(PART_EXECUTOR.submit(() -> {
+                            try {
+                                return failed.get() ? null : uploadPart(key, uploadId, partNumber, channel, position, length, throttle);
+                            } catch (IOException | RuntimeException e) {
+                                failed.set(true);
+                                throw e;
+                            } finally {
+                                requests.release();
+                            }
+                        }));
+                    } catch (RuntimeException e) {
+                        requests.release();
+                        throw e;
+                    }
+                }
+                // parts that were skipped after a failure return null, the failed part itself throws
+                List<byte[]> digests = new ArrayList<>();
+                for (Future<byte[]> part : parts) {
+                    digests.add(part.get());
+                }
+                MessageDigest combined = DigestUtils.getMd5Digest();
+                StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+                for (int i = 0; i < digests.size(); i++) {
+                    byte[] md5 = digests.get(i);
+                    combined.update(md5);
+                    body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>\"").append(Hex.encodeHexString(md5));
+                    body.append("\"</ETag></Part>");
+                }
+                body.append("</CompleteMultipartUpload>");
+                // the ETag of a multipart upload is the MD5 digest of the digests of its parts, followed by the number of parts
+                String expectedETag = Hex.encodeHexString(combined.digest()) + "-" + partCount;
+                String eTag;
+                try {
+                    eTag = completeMultipartUpload(key, uploadId, body.toString(), expectedETag);
+                } catch (S3Exception e) {
+                    eTag = getCompletedETag(key, size, metadata, e);
+                }
+                completed = true;
+                return eTag;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while uploading " + srcPath);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } finally {
+                if (!completed) {
+                    failed.set(true);
+                    // the channel must stay open until no part is read anymore
+                    waitForParts(parts);
+                    abortMultipartUpload(key, uploadId);
+                }
+            }
+        }
+    }
+
+    private String createMultipartUpload(String key, Map<String, String> metadata) throws IOException {
+        Map<String, String> query = Collections.singletonMap("uploads", "");
+        acquireRequest();
+        try {
+            return withRetry("POST " + key, () -> {
+                HttpResponse<byte[]> response = send("POST", key, query, metadata, ByteBuffer.allocate(0));
+                check(response, "POST " + key);
+                String uploadId = getElement(response.body(), "UploadId");
+                if (uploadId == null) {
+                    throw new IOException("The storage did not return an upload id for " + describe(key) + ".");
+                }
+                return uploadId;
+            });
+        } finally {
+            requests.release();
+        }
+    }
+
+    /**
+     *
+     * @return the MD5 digest of the part
+     */
+    private byte[] uploadPart(String key, String uploadId, int partNumber, FileChannel channel, long position, int length, TransferThrottle throttle)
+            throws IOException {
+        byte[] buffer = takeBuffer(length);
+        try {
+            readFully(channel, position, buffer, length);
+            throttle.acquire(length);
+            byte[] md5 = md5(buffer, length);
+            Map<String, String> query = new TreeMap<>();
+            query.put("partNumber", String.valueOf(partNumber));
+            query.put("uploadId", uploadId);
+            Map<String, String> headers = Collections.singletonMap("content-md5", Base64.getEncoder().encodeToString(md5));
+            String description = "PUT " + key + " part " + partNumber;
+            withRetry(description, () -> {
+                HttpResponse<byte[]> response = send("PUT", key, query, headers, ByteBuffer.wrap(buffer, 0, length));
+                check(response, description);
+                return checkETag(response, Hex.encodeHexString(md5), key);
+            });
+            return md5;
+        } finally {
+            if (buffer.length == partSize) {
+                buffers.add(buffer);
+            }
+        }
+    }
+
+    private String completeMultipartUpload(String key, String uploadId, String body, String expectedETag) throws IOException {
+        Map<String, String> query = Collections.singletonMap("uploadId", uploadId);
+        acquireRequest();
+        try {
+            return withRetry("POST " + key, () -> {
+                HttpResponse<byte[]> response = send("POST", key, query, Collections.emptyMap(),
+                        ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)));
+                check(response, "POST " + key);
+                // S3 may report an error after it already sent the status 200
+                if (getElement(response.body(), "Code") != null) {
+                    throw new S3Exception(500, getElement(response.body(), "Code"), "Failed to complete the upload of " + describe(key) + ".");
+                }
+                String eTag = StringUtils.strip(getElement(response.body(), "ETag"), "\"");
+                if (!hasDigestETag(response) || expectedETag.equals(eTag)) {
+                    return eTag;
+                }
+                // not retried, since the upload is complete already
+                throw new S3Exception(response.statusCode(), null,
+                        "The ETag of " + describe(key) + " is " + eTag + " instead of " + expectedETag + ".");
+            });
+        } finally {
+            requests.release();
+        }
+    }
+
+    /**
+     * the storage completes an upload only once, if the response to the completion is lost then the next attempt fails with NoSuchUpload
+     *
+     * @param exception S3Exception of completing the upload
+     * @return the ETag of the object, if it exists with the size and modification date of the uploaded file
+     * @throws IOException the exception of completing the upload if the object is not there
+     */
+    private String getCompletedETag(String key, long size, Map<String, String> metadata, S3Exception exception) throws IOException {
+        if (!"NoSuchUpload".equals(exception.getCode())) {
+            throw exception;
+        }
+        ObjectInfo info = headObject(key);
+        if (info == null || info.getSize() != size || !metadata.get(META_MTIME).equals(String.valueOf(info.getLastModified()))) {
+            throw exception;
+        }
+        log.debug("The upload of " + describe(key) + " was already completed by an earlier attempt.");
+        return info.getETag();
+    }
+
+    /**
+     * remove the parts of a failed upload, failures are only logged since the storage removes them after a while anyway
+     */
+    private void abortMultipartUpload(String key, String uploadId) {
+        try {
+            acquireRequest();
+            try {
+                HttpResponse<byte[]> response = send("DELETE", key, Collections.singletonMap("uploadId", uploadId), Collections.emptyMap(), null);
+                check(response, "DELETE " + key);
+            } finally {
+                requests.release();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to abort the upload of " + describe(key) + ": " + e.getMessage());
+        }
+    }
+
+    private static void waitForParts(List<Future<byte[]>> parts) {
+        boolean interrupted = false;
+        for (Future<byte[]> part : parts) {
+            while (true) {
+                try {
+                    part.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // the channel is closed afterwards, the interrupt is restored once all parts are done
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private HttpResponse<byte[]> send(String method, String key, Map<String, String> query, Map<String, String> extraHeaders, ByteBuffer body)
+            throws IOException {
+        String canonicalUri = pathStyle ? "/" + encode(bucket, false) + (key.isEmpty() ? "" : "/" + encode(key, true)) : "/" + encode(key, true);
+        String canonicalQuery = getCanonicalQuery(query);
+        String host = pathStyle ? getHost(endpoint) : bucket + "." + getHost(endpoint);
+        URI uri = URI.create(endpoint.getScheme() + "://" + host + canonicalUri + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+
+        SortedMap<String, String> headers = new TreeMap<>(extraHeaders);
+        headers.put("host", host);
+        headers.put("x-amz-date", AMZ_DATE.format(Instant.now()));
+        // the integrity of uploads is checked with their MD5 digests, hence their bytes need not be hashed once more for the signature
+        String payloadHash = body != null && body.remaining() > 0 && extraHeaders.containsKey("content-md5") ? UNSIGNED_PAYLOAD
+                : DigestUtils.sha256Hex(body == null ? new byte[0] : toArray(body));
+        headers.put("x-amz-content-sha256", payloadHash);
+        headers.put("authorization", getAuthorization(method, canonicalUri, canonicalQuery, headers, payloadHash));
+
+        HttpRequest.BodyPublisher publisher = body == null ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(body.array(), body.arrayOffset() + body.position(), body.remaining());
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(REQUEST_TIMEOUT).method(method, publisher);
+        // the HttpClient sets the host header on its own
+        headers.forEach((name, value) -> {
+            if (!"host".equals(name)) {
+                request.header(name, value);
+            }
+        });
+        try {
+            return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending " + method + " " + describe(key));
+        }
+    }
+
+    /**
+     * compute the authorization header of AWS Signature Version 4
+     *
+     * @param method HTTP method
+     * @param canonicalUri encoded path of the request
+     * @param canonicalQuery encoded query of the request with its parameters sorted by name
+     * @param headers headers that are signed, with lower case names and containing host and x-amz-date
+     * @param payloadHash hex encoded SHA-256 digest of the body, or UNSIGNED-PAYLOAD
+     * @return the value of the authorization header
+     */
+    String getAuthorization(String method, String canonicalUri, String canonicalQuery, SortedMap<String, String> headers, String payloadHash) {
+        String amzDate = headers.get("x-amz-date");
+        String date = amzDate.substring(0, 8);
+        String scope = date + "/" + region + "/s3/aws4_request";
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringJoiner signedHeaders = new StringJoiner(";");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+            signedHeaders.add(header.getKey());
+        }
+        String canonicalRequest = method + "\n" + canonicalUri + "\n" + canonicalQuery + "\n" + canonicalHeaders + "\n" + signedHeaders + "\n"
+                + payloadHash;
+        String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + DigestUtils.sha256Hex(canonicalRequest);
+
+        byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        signingKey = hmac(signingKey, region);
+        signingKey = hmac(signingKey, "s3");
+        signingKey = hmac(signingKey, "aws4_request");
+        String signature = Hex.encodeHexString(hmac(signingKey, stringToSign));
+        return ALGORITHM + " Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature;
+    }
+
+    /**
+     *
+     * @param value value that should be used in a path or a query
+     * @param keepSlashes true if slashes should not be encoded, e.g. in the keys of objects
+     * @return the value encoded as described by AWS Signature Version 4, i.e. everything except unreserved characters of RFC 3986
+     */
+    static String encode(String value, boolean keepSlashes) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '~'
+                    || (keepSlashes && c == '/')) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)));
+                encoded.append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static String getCanonicalQuery(Map<String, String> query) {
+        StringJoiner canonicalQuery = new StringJoiner("&");
+        new TreeMap<>(query).forEach((name, value) -> canonicalQuery.add(encode(name, false) + "=" + encode(value, false)));
+        return canonicalQuery.toString();
+    }
+
+    /**
+     *
+     * @return host and port of the URI as the HttpClient sends them in the host header, i.e. without the default port of the scheme
+     */
+    private static String getHost(URI uri) {
+        int port = uri.getPort();
+        boolean defaultPort = port == -1 || ("https".equalsIgnoreCase(uri.getScheme()) ? port == 443 : port == 80);
+        return defaultPort ? uri.getHost() : uri.getHost() + ":" + port;
+    }
+
+    private <T> T withRetry(String description, Request<T> request) throws IOException {
+        for (int attempt = 1;; attempt++) {
+            try {
+                return request.send();
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS || (e instanceof S3Exception && !((S3Exception) e).isRetryable())) {
+                    throw e;
+                }
+                log.debug(description + " failed, retrying: " + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry " + description);
+                }
+            }
+        }
+    }
+
+    private void check(HttpResponse<byte[]> response, String description) throws S3Exception {
+        int status = response.statusCode();
+        if (status < 200 || status >= 300) {
+            String code = response.body() == null ? null : getElement(response.body(), "Code");
+            throw new S3Exception(status, code, description + " failed with the status " + status + (code == null ? "" : " " + code) + ".");
+        }
+    }
+
+    private String checkETag(HttpResponse<byte[]> response, String expectedETag, String key) throws IOException {
+        String eTag = getETag(response);
+        if (hasDigestETag(response) && !expectedETag.equals(eTag)) {
+            // retried, since the bytes were changed on their way to the storage
+            throw new IOException("The ETag of " + describe(key) + " is " + eTag + " instead of " + expectedETag + ".");
+        }
+        return eTag;
+    }
+
+    /**
+     *
+     * @return false if the object is encrypted with SSE-KMS or SSE-C, whose ETags are not derived from the MD5 digest of the content, the
+     *         storage has checked the Content-MD5 of the request then
+     */
+    private static boolean hasDigestETag(HttpResponse<byte[]> response) {
+        String encryption = response.headers().firstValue("x-amz-server-side-encryption").orElse("");
+        return !encryption.startsWith("aws:kms") && response.headers().firstValue("x-amz-server-side-encryption-customer-algorithm").isEmpty();
+    }
+
+    private static String getETag(HttpResponse<byte[]> response) {
+        return StringUtils.strip(response.headers().firstValue("etag").orElse(""), "\"");
+    }
+
+    /**
+     *
+     * @return the unescaped text of the first element with this name in the XML document, or null if it does not exist
+     */
+    private static String getElement(byte[] xml, String name) {
+        Matcher matcher = Pattern.compile("<" + name + ">([^<]*)</" + name + ">").matcher(new String(xml, StandardCharsets.UTF_8));
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(1).replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">").replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private void acquireRequest() throws InterruptedIOException {
+        try {
+            requests.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free request to " + endpoint);
+        }
+    }
+
+    private byte[] takeBuffer(int length) {
+        if (length > partSize) {
+            return new byte[length];
+        }
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[partSize];
+    }
+
+    private static int readFully(FileChannel channel, long position, byte[] buffer, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IOException("The file was truncated while it was uploaded.");
+            }
+        }
+        return length;
+    }
+
+    private static byte[] md5(byte[] content, int length) {
+        MessageDigest digest = DigestUtils.getMd5Digest();
+        digest.update(content, 0, length);
+        return digest.digest();
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            // every Java 11 runtime has to support HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "zop-export-s3-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * attributes of an existing object
+     */
+    @Getter
+    static final class ObjectInfo {
+
+        private final long size;
+        // modification date of the original file in milliseconds, -1 if unknown
+        private final long lastModified;
+        private final String eTag;
+
+        ObjectInfo(long size, long lastModified, String eTag) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.eTag = eTag;
+        }
+    }
+
+    /**
+     * single request that may be sent again if it fails
+     */
+    @FunctionalInterface
+    private interface Request<T> {
+        T send() throws IOException;
+    }
+
+    /**
+     * error response of the storage
+     */
+    @Getter
+    static final class S3Exception extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+        // code of the error document, null if there is none
+        private final String code;
+
+        S3Exception(int status, String code, String message) {
+            super(message);
+            this.status = status;
+            this.code = code;
+        }
+
+        /**
+         *
+         * @return true if the request may succeed when it is sent again
+         */
+        boolean isRetryable() {
+            return status >= 500 || status == 408 || status == 429 || "BadDigest".equals(code) || "RequestTimeout".equals(code);
+        }
+    }
+
+}
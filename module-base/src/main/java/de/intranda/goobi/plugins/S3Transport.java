@@ -0,0 +1,242 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.beans.Process;
+import org.goobi.production.enums.LogType;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * prefix inside a bucket of an S3 compatible object storage, the folders only exist as parts of the keys
+ */
+@Log4j2
+final class S3Transport extends AbstractTransport {
+
+    private final S3Client s3Client; // shared with the other exports of the same config block
+    private final ExportPackage.Format packaging; // not supported, only used to warn about it
+
+    /**
+     * 
+     * @param config ZopExportConfig of the process
+     * @param metrics ExportMetrics of the export
+     * @param checksumCache ChecksumCache of the plugin
+     * @param journal Journal of the export
+     */
+    S3Transport(ZopExportConfig config, ExportMetrics metrics, ChecksumCache checksumCache, Journal journal) {
+        super(config, metrics, checksumCache, journal);
+        s3Client = config.getS3Client();
+        packaging = config.getPackaging();
+    }
+
+    @Override
+    public Type getType() {
+        return Type.S3;
+    }
+
+    @Override
+    public String getThrottleTarget(Path path) {
+        return s3Client.describe("");
+    }
+
+    @Override
+    public boolean connect() {
+        // every request opens or reuses its own connection
+        return true;
+    }
+
+    @Override
+    public long getUsableSpace(Path path) {
+        // buckets have no fixed capacity
+        return -1;
+    }
+
+    @Override
+    protected Map<String, Long> getFileSizes(Path path) {
+        // the sizes only reduce the space that is required, which buckets do not limit
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean createFolder(Path path) {
+        return true;
+    }
+
+    @Override
+    public String describe(Path path) {
+        return s3Client.describe(S3Client.toKey(path));
+    }
+
+    @Override
+    public void close() {
+        // the client is shared with the other exports of the same config block
+    }
+
+    @Override
+    public boolean copy(Process process, List<ExportSource> sources, Path toPath) {
+        String prefix = S3Client.toKey(toPath);
+        if (staging || packaging != ExportPackage.Format.NONE) {
+            // objects become visible all at once anyway, and the .ctl file is only uploaded after all of them
+            log.warn("ZOP Export Plugin: The options staging and packaging are not supported for S3 targets and will be ignored.");
+        }
+        try {
+            if (checkIfPathEmpty && !resume && s3Client.hasObjects(prefix + "/")) {
+                logBoth(process.getId(), LogType.ERROR, "The directory: '" + s3Client.describe(prefix) + "' is not empty!");
+                logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+                return false;
+            }
+            long phaseStart = System.nanoTime();
+            Map<String, Path> skippedFiles = copyImages(sources, prefix);
+            metrics.endPhase(ExportMetrics.PHASE_TRANSFER, phaseStart);
+            if (writeManifest) {
+                phaseStart = System.nanoTime();
+                createManifest(toPath, skippedFiles);
+                metrics.endPhase(ExportMetrics.PHASE_MANIFEST, phaseStart);
+            }
+            phaseStart = System.nanoTime();
+            createCTL(toPath);
+            metrics.endPhase(ExportMetrics.PHASE_CREATE_CTL, phaseStart);
+
+        } catch (IOException e) {
+            logBoth(process.getId(), LogType.ERROR,
+                    "Errors happened trying to upload from '" + SourceFiles.describe(sources) + "' to '" + s3Client.describe(prefix) + "': "
+                            + e.getMessage());
+            logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+            return false;
+        }
+        logBoth(process.getId(), LogType.INFO,
+                "Images from '" + SourceFiles.describe(sources) + "' are successfully uploaded to '" + s3Client.describe(prefix) + "'.");
+        logBoth(process.getId(), LogType.INFO, ZopExportPlugin.COMPLETION_MESSAGE + process.getId());
+        return true;
+    }
+
+    /**
+     * 
+     * @param sources resolved ExportSources
+     * @param prefix key of the target folder, without a trailing slash
+     * @return absolute paths of the files that were already delivered and are not part of the manifest yet, mapped by their relative paths
+     *         inside the target folder, empty if no manifest is written
+     * @throws IOException
+     */
+    private Map<String, Path> copyImages(List<ExportSource> sources, String prefix) throws IOException {
+        log.debug("Upload images from '" + SourceFiles.describe(sources) + "' to '" + s3Client.describe(prefix) + "'.");
+        Map<String, Path> skippedFiles = new ConcurrentHashMap<>();
+        AtomicInteger skippedCount = new AtomicInteger();
+        SourceFiles.Visitor<IOException> upload = (srcPath, targetName) -> {
+            String key = prefix + "/" + targetName;
+            if (resume && isDelivered(srcPath, s3Client.headObject(key))) {
+                skipFile(skippedFiles, skippedCount, srcPath, targetName);
+            } else {
+                uploadFile(srcPath, key, targetName);
+            }
+        };
+
+        int files;
+        try {
+            if (s3Client.getThreads() > 1) {
+                // the parts of large files are uploaded in parallel as well, the client limits the number of requests
+                files = forEachFileParallel(sources, s3Client.getThreads(), upload::visit);
+            } else {
+                files = SourceFiles.forEach(sources, upload);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while uploading images.", e);
+        }
+        if (resume) {
+            log.debug(skippedCount.get() + " of " + files + " files were already delivered and have been skipped.");
+        }
+        return skippedFiles;
+    }
+
+    /**
+     * 
+     * @param srcPath absolute path to the source file
+     * @param key key of the object
+     * @param name relative path of the object inside the target folder, used for the manifest
+     * @throws IOException if the upload fails even after retrying its parts
+     */
+    private void uploadFile(Path srcPath, String key, String name) throws IOException {
+        long size = Files.size(srcPath);
+        throttle.acquireSlot();
+        try {
+            s3Client.upload(key, srcPath, throttle);
+        } finally {
+            throttle.releaseSlot();
+        }
+        metrics.addFile(size);
+        if (writeManifest) {
+            // the checksums are computed separately, since the parts of a file are uploaded in parallel
+            manifest.add(name, size, checksumCache.checksum(srcPath, FileDigest.SHA_256));
+        }
+    }
+
+    /**
+     * 
+     * @param srcPath absolute path to the source file
+     * @param info attributes of the object, null if it does not exist
+     * @return true if the object equals the source file in size and modification date
+     * @throws IOException
+     */
+    private boolean isDelivered(Path srcPath, S3Client.ObjectInfo info) throws IOException {
+        return info != null && info.getSize() == Files.size(srcPath)
+                && isSameModificationTime(Files.getLastModifiedTime(srcPath).toMillis(), info.getLastModified());
+    }
+
+    /**
+     * 
+     * @param path whose folderName and parent will be used
+     * @param skippedFiles absolute paths of the files that were already delivered by a previous attempt, mapped by their relative paths
+     * @throws IOException
+     */
+    private void createManifest(Path path, Map<String, Path> skippedFiles) throws IOException {
+        // the manifest is created next to the folder, just like the .ctl file
+        String manifestKey = S3Client.toKey(path.getParent().resolve(ChecksumManifest.getFileName(path.getFileName().toString())));
+        String sizesKey = S3Client.toKey(path.getParent().resolve(ChecksumManifest.getSizesFileName(path.getFileName().toString())));
+        ChecksumManifest previousManifest = null;
+        if (resume) {
+            byte[] previous = s3Client.getObject(manifestKey);
+            byte[] previousSizes = s3Client.getObject(sizesKey);
+            if (previous != null && previousSizes != null) {
+                previousManifest = ChecksumManifest.read(new ByteArrayInputStream(previous), new ByteArrayInputStream(previousSizes));
+            }
+        }
+        // the uploaded files are listed already, only the skipped ones are missing
+        completeManifest(skippedFiles, previousManifest);
+        ByteArrayOutputStream sizes = new ByteArrayOutputStream();
+        manifest.writeSizes(sizes);
+        s3Client.putObject(sizesKey, sizes.toByteArray());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.writeChecksums(out);
+        s3Client.putObject(manifestKey, out.toByteArray());
+    }
+
+    /**
+     * 
+     * @param path whose folderName and parent will be used
+     * @throws IOException
+     */
+    private void createCTL(Path path) throws IOException {
+        // the .ctl object is named after the folder and placed next to it
+        String ctlKey = S3Client.toKey(path.getParent().resolve(path.getFileName().toString().concat(".ctl")));
+        if (resume && s3Client.headObject(ctlKey) != null) {
+            log.debug("The .ctl file already exists: " + s3Client.describe(ctlKey));
+            return;
+        }
+        s3Client.putObject(ctlKey, new byte[0]);
+    }
+
+}
@@ -0,0 +1,251 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Keeps connected SSH sessions for reuse by later exports, so that a batch of exports to the same host does not need a full handshake per
+ * process. Sessions are pooled per username, hostname, port and key file, at most maxSessions of them are open per key at the same time, and
+ * sessions that stayed idle longer than idleTimeout are disconnected.
+ */
+@Log4j2
+final class SftpSessionPool {
+
+    private static final SftpSessionPool INSTANCE = new SftpSessionPool();
+    private static final long EVICTION_INTERVAL_SECONDS = 30;
+    private static final long BORROW_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Map<String, Deque<IdleSession>> idleSessions = new HashMap<>();
+    private final Map<String, Integer> openSessions = new HashMap<>();
+    private final Map<Session, String> borrowedSessions = new IdentityHashMap<>();
+    private final Map<String, JSch> jschInstances = new HashMap<>();
+    private final Map<Session, Set<String>> knownDirectories = new IdentityHashMap<>();
+
+    private int maxSessions = 4;
+    private long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(5);
+
+    private SftpSessionPool() {
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "zop-sftp-session-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdleSessions, EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    static SftpSessionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     *
+     * @param maxSessions maximum number of sessions that may be open per username, hostname, port and key file
+     * @param idleTimeoutSeconds number of seconds after which an unused session gets disconnected
+     */
+    synchronized void configure(int maxSessions, int idleTimeoutSeconds) {
+        this.maxSessions = Math.max(1, maxSessions);
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(0, idleTimeoutSeconds));
+        notifyAll();
+    }
+
+    /**
+     * get a connected session, either an idle one that passed the health check or a newly created one
+     *
+     * @param username user name at the remote host
+     * @param hostname name of the remote host
+     * @param port port of the remote host
+     * @param keyPath path to the private key file
+     * @return connected Session that must be given back via releaseSession
+     * @throws JSchException if no connection could be established
+     * @throws InterruptedException if interrupted while waiting for a free session
+     */
+    Session borrowSession(String username, String hostname, int port, String keyPath) throws JSchException, InterruptedException {
+        String key = username + "@" + hostname + ":" + port + "#" + keyPath;
+        long deadline = System.currentTimeMillis() + BORROW_TIMEOUT_MILLIS;
+        while (true) {
+            IdleSession candidate;
+            synchronized (this) {
+                candidate = idleSessions.computeIfAbsent(key, k -> new ArrayDeque<>()).pollFirst();
+                if (candidate == null) {
+                    int open = openSessions.getOrDefault(key, 0);
+                    if (open >= maxSessions) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new JSchException("Timed out waiting for a free SFTP session to " + hostname);
+                        }
+                        wait(remaining);
+                        continue;
+                    }
+                    // reserve the slot, the handshake itself happens outside of the lock
+                    openSessions.put(key, open + 1);
+                }
+            }
+
+            if (candidate != null) {
+                if (isHealthy(candidate.session)) {
+                    log.debug("Reusing SFTP session to " + hostname);
+                    markBorrowed(candidate.session, key);
+                    return candidate.session;
+                }
+                log.debug("Discarding broken SFTP session to " + hostname);
+                discard(key, candidate.session);
+                continue;
+            }
+
+            try {
+                Session session = connect(key, username, hostname, port, keyPath);
+                markBorrowed(session, key);
+                return session;
+            } catch (JSchException e) {
+                synchronized (this) {
+                    decrementOpenSessions(key);
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * give a borrowed session back to the pool, sessions that are no longer connected are dropped
+     *
+     * @param session Session that was returned by borrowSession
+     */
+    void releaseSession(Session session) {
+        if (session == null) {
+            return;
+        }
+        String key;
+        synchronized (this) {
+            key = borrowedSessions.remove(session);
+            if (key == null) {
+                log.debug("Ignoring a session that was not borrowed from the pool.");
+                return;
+            }
+            if (session.isConnected()) {
+                idleSessions.computeIfAbsent(key, k -> new ArrayDeque<>()).addFirst(new IdleSession(session, System.currentTimeMillis()));
+                notifyAll();
+                return;
+            }
+        }
+        discard(key, session);
+    }
+
+    /**
+     *
+     * @param session Session that was returned by borrowSession
+     * @return remote folders that are known to exist, shared by all exports that use this session and dropped together with it
+     */
+    synchronized Set<String> getKnownDirectories(Session session) {
+        return knownDirectories.computeIfAbsent(session, s -> ConcurrentHashMap.newKeySet());
+    }
+
+    private synchronized void markBorrowed(Session session, String key) {
+        borrowedSessions.put(session, key);
+    }
+
+    private Session connect(String key, String username, String hostname, int port, String keyPath) throws JSchException {
+        JSch jsch;
+        synchronized (this) {
+            jsch = jschInstances.get(key);
+            if (jsch == null) {
+                JSch.setConfig("StrictHostKeyChecking", "no");
+                jsch = new JSch();
+                jsch.addIdentity(keyPath);
+                jschInstances.put(key, jsch);
+            }
+        }
+        log.debug("Opening new SFTP session to " + hostname);
+        Session session = jsch.getSession(username, hostname);
+        session.setPort(port);
+        session.connect();
+        return session;
+    }
+
+    private boolean isHealthy(Session session) {
+        if (!session.isConnected()) {
+            return false;
+        }
+        try {
+            session.sendKeepAliveMsg();
+            return true;
+        } catch (Exception e) {
+            log.debug("SFTP session failed the health check: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void discard(String key, Session session) {
+        session.disconnect();
+        synchronized (this) {
+            knownDirectories.remove(session);
+            decrementOpenSessions(key);
+            notifyAll();
+        }
+    }
+
+    private void decrementOpenSessions(String key) {
+        int open = openSessions.getOrDefault(key, 1) - 1;
+        if (open > 0) {
+            openSessions.put(key, open);
+        } else {
+            openSessions.remove(key);
+        }
+    }
+
+    private void evictIdleSessions() {
+        try {
+            closeExpiredSessions();
+        } catch (RuntimeException e) {
+            // never let an exception cancel the scheduled eviction
+            log.error("Failed to evict idle SFTP sessions", e);
+        }
+    }
+
+    private void closeExpiredSessions() {
+        Map<Session, String> expired = new IdentityHashMap<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Deque<IdleSession>> entry : idleSessions.entrySet()) {
+                Iterator<IdleSession> iterator = entry.getValue().iterator();
+                while (iterator.hasNext()) {
+                    IdleSession idle = iterator.next();
+                    if (now - idle.since >= idleTimeoutMillis) {
+                        iterator.remove();
+                        expired.put(idle.session, entry.getKey());
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Session, String> entry : expired.entrySet()) {
+            log.debug("Closing idle SFTP session to " + entry.getKey().getHost());
+            discard(entry.getValue(), entry.getKey());
+        }
+    }
+
+    private static final class IdleSession {
+        private final Session session;
+        private final long since;
+
+        private IdleSession(Session session, long since) {
+            this.session = session;
+            this.since = since;
+        }
+    }
+
+}
@@ -0,0 +1,854 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.goobi.beans.Process;
+import org.goobi.production.enums.LogType;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpStatVFS;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * folder on a remote host, using a pooled SSH session
+ */
+@Log4j2
+final class SftpTransport extends AbstractTransport {
+
+    private volatile Session sftpSession; // replaced by the upload workers if the connection dropped
+    private volatile ChannelSftp sftpChannel;
+    private final String username;
+    private final String hostname;
+    private final int port;
+    private final String keyPath;
+    private final int sftpMaxSessions;
+    private final int sftpIdleTimeout;
+    private final int sftpChannels; // number of sftp channels that are used in parallel to upload the images
+    private final int sftpUploadAttempts; // number of attempts to upload a single file
+    private final ExportPackage.Format packaging; // archive the files are uploaded in, NONE for single files
+    private volatile boolean verifyRemoteChecksum; // true if the checksums of the uploaded files should be computed by the remote host
+
+    /**
+     * 
+     * @param config ZopExportConfig of the process
+     * @param metrics ExportMetrics of the export
+     * @param checksumCache ChecksumCache of the plugin
+     * @param journal Journal of the export
+     */
+    SftpTransport(ZopExportConfig config, ExportMetrics metrics, ChecksumCache checksumCache, Journal journal) {
+        super(config, metrics, checksumCache, journal);
+        username = config.getUsername();
+        hostname = config.getHostname();
+        port = config.getPort();
+        keyPath = config.getKeyPath();
+        sftpMaxSessions = config.getSftpMaxSessions();
+        sftpIdleTimeout = config.getSftpIdleTimeout();
+        sftpChannels = config.getSftpChannels();
+        sftpUploadAttempts = config.getSftpUploadAttempts();
+        packaging = config.getPackaging();
+        verifyRemoteChecksum = config.isVerifyRemoteChecksum();
+    }
+
+    @Override
+    public Type getType() {
+        return Type.SFTP;
+    }
+
+    @Override
+    public String getThrottleTarget(Path path) {
+        return hostname;
+    }
+
+    @Override
+    public boolean connect() throws InterruptedException {
+        SftpSessionPool.getInstance().configure(sftpMaxSessions, sftpIdleTimeout);
+        try {
+            long phaseStart = System.nanoTime();
+            sftpChannel = setupJSch();
+            sftpChannel.connect();
+            metrics.endPhase(ExportMetrics.PHASE_CONNECT, phaseStart);
+            return true;
+        } catch (JSchException e) {
+            log.error("Failed to initialize the sftp channel to " + hostname + ": " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getDeliveredSizes(List<ExportSource> sources, Path path) throws IOException {
+        if (packaging != ExportPackage.Format.NONE) {
+            // an archive is always uploaded as a whole
+            return Collections.emptyMap();
+        }
+        return super.getDeliveredSizes(sources, path);
+    }
+
+    @Override
+    public Path getFolderPath(Path path) {
+        // an archive is placed next to the target folder
+        return packaging != ExportPackage.Format.NONE ? path.getParent() : super.getFolderPath(path);
+    }
+
+    @Override
+    public boolean createFolder(Path path) throws IOException {
+        try {
+            return createRemoteFolder(path);
+        } catch (SftpException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean copy(Process process, List<ExportSource> sources, Path toPath) {
+        if (packaging != ExportPackage.Format.NONE) {
+            return tryPackage(process, sources, toPath);
+        }
+        return tryCopy(process, sources, toPath);
+    }
+
+    @Override
+    public String describe(Path path) {
+        return username + "@" + hostname + ":" + path.toString();
+    }
+
+    /**
+     * close the sftpChannel and give its session back to the pool
+     */
+    @Override
+    public void close() {
+        if (sftpChannel != null) {
+            sftpChannel.exit();
+            sftpChannel = null;
+        }
+        if (sftpSession != null) {
+            SftpSessionPool.getInstance().releaseSession(sftpSession);
+            sftpSession = null;
+        }
+    }
+
+    @Override
+    protected Map<String, Long> getFileSizes(Path path) throws IOException {
+        Map<String, Long> sizes = new HashMap<>();
+        try {
+            if (stat(path) != null) {
+                listRemoteFiles(path).forEach((name, attrs) -> {
+                    if (attrs.isReg()) {
+                        sizes.put(name, attrs.getSize());
+                    }
+                });
+            }
+        } catch (SftpException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return sizes;
+    }
+
+    @Override
+    public long getUsableSpace(Path path) {
+        try {
+            for (Path existing = path; existing != null; existing = existing.getParent()) {
+                if (stat(existing) != null) {
+                    SftpStatVFS stat = sftpChannel.statVFS(existing.toString());
+                    return stat.getAvailBlocks() * stat.getFragmentSize();
+                }
+            }
+        } catch (SftpException e) {
+            // the server does not support the statvfs extension of OpenSSH
+            log.debug("Failed to read the usable space of " + hostname + ":" + path.toString() + ": " + e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * 
+     * @param path absolute path of the target folder
+     * @return true if the folder already exists or is successfully created, false if failure happened.
+     * @throws SftpException
+     */
+    private boolean createRemoteFolder(Path path) throws SftpException {
+        Path target = Paths.get("/").resolve(path).normalize();
+        Set<String> knownDirectories = SftpSessionPool.getInstance().getKnownDirectories(sftpSession);
+
+        // walk upwards until an existing folder is found, the target itself is always checked since the hotfolder consumer removes it
+        Deque<Path> missingFolders = new ArrayDeque<>();
+        for (Path current = target; current != null; current = current.getParent()) {
+            if (current != target && knownDirectories.contains(current.toString())) {
+                break;
+            }
+            SftpATTRS attrs = stat(current);
+            if (attrs != null) {
+                if (!attrs.isDir()) {
+                    log.error("Not a directory remotely: " + current.toString());
+                    return false;
+                }
+                break;
+            }
+            missingFolders.push(current);
+        }
+
+        // create the missing folders from top to bottom, using absolute paths instead of changing the working directory
+        boolean directoryCreated = !missingFolders.isEmpty();
+        while (!missingFolders.isEmpty()) {
+            Path folder = missingFolders.pop();
+            if (folder.getFileName().toString().startsWith(".")) { // avoid creating hidden folders
+                log.error("Refusing to create the hidden folder remotely: " + folder.toString());
+                return false;
+            }
+            try {
+                sftpChannel.mkdir(folder.toString());
+                log.debug("folder created: " + folder.toString());
+            } catch (SftpException e) {
+                // another export may have created it in the meantime
+                SftpATTRS attrs = stat(folder);
+                if (attrs == null || !attrs.isDir()) {
+                    throw e;
+                }
+            }
+        }
+
+        // the parent folders will not vanish, hence the following exports of this session can skip them
+        for (Path current = target.getParent(); current != null; current = current.getParent()) {
+            knownDirectories.add(current.toString());
+        }
+        String temp = directoryCreated ? "Directory created remotely: " : "Directory already exisits remotely: ";
+        log.debug(temp + path.toString());
+        return true;
+    }
+
+    /**
+     * 
+     * @param process
+     * @param sources resolved ExportSources
+     * @param toPath absolute path to the target folder
+     * @return true if the copy is successfully performed, false otherwise
+     */
+    private boolean tryCopy(Process process, List<ExportSource> sources, Path toPath) {
+        Path workPath = staging ? getStagingPath(toPath) : toPath;
+        try {
+            if (staging) {
+                // a published folder can not be replaced by a single rename
+                if (exists(toPath) && sftpChannel.ls(toPath.toString()).size() > 2) {
+                    logBoth(process.getId(), LogType.ERROR, "The directory: '" + toPath.toString() + "' already exists and is not empty!");
+                    logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+                    return false;
+                }
+                prepareStaging(toPath, workPath);
+            } else if (checkIfPathEmpty && !resume && sftpChannel.ls(toPath.toString()).size() > 2) { // because of the existence of `.` and `..` in empty folders
+                // check if the targeted directory is empty:
+                logBoth(process.getId(), LogType.ERROR, "The directory: '" + toPath.toString() + "' is not empty!");
+                logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+                return false;
+            }
+            // if the folder is empty, great!
+            long phaseStart = System.nanoTime();
+            Map<String, Path> skippedFiles = copyImages(sources, workPath);
+            metrics.endPhase(ExportMetrics.PHASE_TRANSFER, phaseStart);
+            if (writeManifest) {
+                phaseStart = System.nanoTime();
+                createManifest(toPath, skippedFiles);
+                metrics.endPhase(ExportMetrics.PHASE_MANIFEST, phaseStart);
+            }
+            if (staging) {
+                phaseStart = System.nanoTime();
+                sftpChannel.rename(workPath.toString(), toPath.toString());
+                log.debug("Published the staged directory remotely as: " + toPath.toString());
+                metrics.endPhase(ExportMetrics.PHASE_PUBLISH, phaseStart);
+            }
+            phaseStart = System.nanoTime();
+            createCTL(toPath);
+            metrics.endPhase(ExportMetrics.PHASE_CREATE_CTL, phaseStart);
+
+        } catch (SftpException e) {
+            if (staging && !resume) {
+                deleteStaging(workPath);
+            }
+            logBoth(process.getId(), LogType.ERROR,
+                    "Errors happened trying to copy from '" + SourceFiles.describe(sources) + "' to '" + describe(toPath) + "'.");
+            logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+            return false;
+        } catch (IOException ee) {
+            if (staging && !resume) {
+                // a resumed export continues with the files that are already staged
+                deleteStaging(workPath);
+            }
+            logBoth(process.getId(), LogType.ERROR, "Errors happened trying to read the local files.");
+            logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+            return false;
+        }
+        logBoth(process.getId(), LogType.INFO,
+                "Images from '" + SourceFiles.describe(sources) + "' are successfully copied to '" + describe(toPath) + "'.");
+        logBoth(process.getId(), LogType.INFO, ZopExportPlugin.COMPLETION_MESSAGE + process.getId());
+        return true;
+    }
+
+    /**
+     * upload all files as a single archive named after the folder, which is streamed without staging it on the local disk
+     * 
+     * @param process
+     * @param sources resolved ExportSources
+     * @param toPath absolute path to the target folder, which is not created, the archive is placed next to it instead
+     * @return true if the upload is successfully performed, false otherwise
+     */
+    private boolean tryPackage(Process process, List<ExportSource> sources, Path toPath) {
+        Path archivePath = toPath.resolveSibling(toPath.getFileName().toString() + packaging.getExtension());
+        Path workPath = staging ? getStagingPath(archivePath) : archivePath;
+        try {
+            if (checkIfPathEmpty && exists(archivePath)) {
+                logBoth(process.getId(), LogType.ERROR, "The archive: '" + archivePath.toString() + "' already exists!");
+                logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+                return false;
+            }
+            long phaseStart = System.nanoTime();
+            uploadArchive(sources, workPath);
+            metrics.endPhase(ExportMetrics.PHASE_TRANSFER, phaseStart);
+            if (writeManifest) {
+                phaseStart = System.nanoTime();
+                // every packed file is part of the manifest already
+                createManifest(toPath, Collections.emptyMap());
+                metrics.endPhase(ExportMetrics.PHASE_MANIFEST, phaseStart);
+            }
+            if (staging) {
+                phaseStart = System.nanoTime();
+                if (exists(archivePath)) {
+                    // SFTP does not replace existing files when renaming
+                    sftpChannel.rm(archivePath.toString());
+                }
+                sftpChannel.rename(workPath.toString(), archivePath.toString());
+                log.debug("Published the staged archive remotely as: " + archivePath.toString());
+                metrics.endPhase(ExportMetrics.PHASE_PUBLISH, phaseStart);
+            }
+            phaseStart = System.nanoTime();
+            createCTL(toPath);
+            metrics.endPhase(ExportMetrics.PHASE_CREATE_CTL, phaseStart);
+
+        } catch (SftpException e) {
+            if (staging) {
+                deleteFile(workPath);
+            }
+            logBoth(process.getId(), LogType.ERROR,
+                    "Errors happened trying to pack '" + SourceFiles.describe(sources) + "' into '" + describe(archivePath) + "': " + e.getMessage());
+            logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+            return false;
+        } catch (IOException ee) {
+            if (staging) {
+                deleteFile(workPath);
+            }
+            logBoth(process.getId(), LogType.ERROR, "Errors happened trying to read the local files.");
+            logBoth(process.getId(), LogType.ERROR, ZopExportPlugin.ABORTION_MESSAGE + process.getId());
+            return false;
+        }
+        logBoth(process.getId(), LogType.INFO,
+                "Images from '" + SourceFiles.describe(sources) + "' are successfully packed into '" + describe(archivePath) + "'.");
+        logBoth(process.getId(), LogType.INFO, ZopExportPlugin.COMPLETION_MESSAGE + process.getId());
+        return true;
+    }
+
+    /**
+     * 
+     * @param sources resolved ExportSources
+     * @param destPath absolute path to the remote archive
+     * @throws SftpException if the upload fails or the remote archive differs in size or checksum
+     * @throws IOException if a source file can not be read
+     */
+    private void uploadArchive(List<ExportSource> sources, Path destPath) throws SftpException, IOException {
+        log.debug("Pack images from '" + SourceFiles.describe(sources) + "' into '" + username + "@" + hostname + ":" + destPath.toString() + "'.");
+        int files;
+        long size;
+        String checksum;
+        throttle.acquireSlot();
+        try (ExportPackage archive = new ExportPackage(sftpChannel.put(destPath.toString()), packaging, pipeline)) {
+            files = SourceFiles.forEach(sources, (srcPath, name) -> {
+                long fileSize = Files.size(srcPath);
+                String version = checksumCache.getVersion(srcPath);
+                String fileChecksum = archive.add(srcPath, name, throttle);
+                checksumCache.put(srcPath, version, FileDigest.SHA_256, fileChecksum);
+                manifest.add(name, fileSize, fileChecksum);
+                metrics.addFile(fileSize);
+            });
+            archive.finish();
+            size = archive.getSize();
+            checksum = archive.getChecksum();
+        } finally {
+            throttle.releaseSlot();
+        }
+        log.debug("Packed " + files + " files into an archive of " + size + " bytes.");
+        // the archive is complete at the remote host once its stream is closed
+        verifyRemoteFile(sftpChannel, destPath, size, checksum);
+    }
+
+    /**
+     * 
+     * @param path absolute path of the remote file that should be removed, failures are only logged
+     */
+    private void deleteFile(Path path) {
+        try {
+            if (exists(path)) {
+                sftpChannel.rm(path.toString());
+            }
+        } catch (SftpException e) {
+            log.error("Failed to remove the file remotely: " + path.toString());
+        }
+    }
+
+    /**
+     * remove an empty target folder, since it would block the rename, and create the staging folder
+     * 
+     * @param path absolute path of the target folder
+     * @param stagingPath absolute path of the staging folder
+     * @throws SftpException
+     */
+    private void prepareStaging(Path path, Path stagingPath) throws SftpException {
+        if (exists(path)) {
+            sftpChannel.rmdir(path.toString());
+            SftpSessionPool.getInstance().getKnownDirectories(sftpSession).remove(path.toString());
+        }
+        boolean stagingExists = exists(stagingPath);
+        if (stagingExists && !resume) {
+            // left by an attempt that was interrupted, the files are only reused when resuming
+            log.debug("Removing the staged directory of a previous attempt remotely: " + stagingPath.toString());
+            deleteStaging(stagingPath);
+            stagingExists = false;
+        }
+        if (!stagingExists) {
+            sftpChannel.mkdir(stagingPath.toString());
+        }
+        log.debug("Staging directory remotely: " + stagingPath.toString());
+    }
+
+    /**
+     * remove the staging folder together with its files, failures are only logged
+     * 
+     * @param stagingPath absolute path of the staging folder
+     */
+    private void deleteStaging(Path stagingPath) {
+        try {
+            // it is gone already if the export failed after publishing it
+            if (exists(stagingPath)) {
+                deleteFolder(stagingPath);
+            }
+        } catch (SftpException e) {
+            log.error("Failed to remove the staged directory remotely: " + stagingPath.toString());
+        }
+    }
+
+    /**
+     * 
+     * @param path absolute path of the remote folder that should be removed together with its contents
+     * @throws SftpException
+     */
+    private void deleteFolder(Path path) throws SftpException {
+        for (Map.Entry<String, SftpATTRS> entry : listRemoteFiles(path).entrySet()) {
+            String name = entry.getKey();
+            if (".".equals(name) || "..".equals(name)) {
+                continue;
+            }
+            if (entry.getValue().isDir()) {
+                deleteFolder(path.resolve(name));
+            } else {
+                sftpChannel.rm(path.resolve(name).toString());
+            }
+        }
+        sftpChannel.rmdir(path.toString());
+    }
+
+    /**
+     * 
+     * @param path absolute path of a remote file or folder
+     * @return true if it exists, false otherwise
+     * @throws SftpException if the remote host reports another error than a missing file
+     */
+    private boolean exists(Path path) throws SftpException {
+        return stat(path) != null;
+    }
+
+    /**
+     * 
+     * @param path absolute path of a remote file or folder
+     * @return attributes of the file or folder, null if it does not exist
+     * @throws SftpException if the remote host reports another error than a missing file
+     */
+    private SftpATTRS stat(Path path) throws SftpException {
+        try {
+            return sftpChannel.stat(path.toString());
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * upload the files of the sources into the target folder, without the manifest and the .ctl file
+     * 
+     * @param sources resolved ExportSources
+     * @param toPath absolute path to the target folder
+     * @return absolute paths of the files that were already delivered and are not part of the manifest yet, mapped by their relative paths
+     *         inside the target folder, empty if no manifest is written
+     * @throws SftpException
+     * @throws IOException
+     */
+    Map<String, Path> copyImages(List<ExportSource> sources, Path toPath) throws SftpException, IOException {
+        log.debug("Copy images from '" + SourceFiles.describe(sources) + "' to '" + username + "@" + hostname + ":" + toPath.toString() + "'.");
+        Map<String, SftpATTRS> remoteFiles = new HashMap<>();
+        for (String target : sources.stream().map(ExportSource::getTarget).distinct().collect(Collectors.toList())) {
+            Path folder = toPath.resolve(target);
+            if (!target.isEmpty() && !createRemoteFolder(folder)) {
+                throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Failed to create the directory remotely: " + folder.toString());
+            }
+            if (resume) {
+                listRemoteFiles(folder).forEach((name, attrs) -> remoteFiles.put(target.isEmpty() ? name : target + "/" + name, attrs));
+            }
+        }
+        Map<String, Path> skippedFiles = new ConcurrentHashMap<>();
+        AtomicInteger skippedCount = new AtomicInteger();
+
+        int files;
+        if (sftpChannels > 1) {
+            files = copyFilesParallel(sources, toPath, remoteFiles, (srcPath, targetName) -> skipFile(skippedFiles, skippedCount, srcPath,
+                    targetName));
+        } else {
+            files = SourceFiles.forEach(sources, (srcPath, targetName) -> {
+                if (isDelivered(srcPath, remoteFiles.get(targetName))) {
+                    skipFile(skippedFiles, skippedCount, srcPath, targetName);
+                } else {
+                    sftpChannel = putFile(sftpChannel, srcPath, toPath.resolve(targetName), targetName);
+                }
+            });
+        }
+        if (resume) {
+            log.debug(skippedCount.get() + " of " + files + " files were already delivered and have been skipped.");
+        }
+        return skippedFiles;
+    }
+
+    /**
+     * 
+     * @param srcPath absolute path to the source file
+     * @param attrs attributes of the remote file, null if it does not exist
+     * @return true if the remote file equals the source file in size and modification date
+     * @throws SftpException
+     */
+    private boolean isDelivered(Path srcPath, SftpATTRS attrs) throws SftpException {
+        if (attrs == null) {
+            return false;
+        }
+        try {
+            return attrs.getSize() == Files.size(srcPath)
+                    && isSameModificationTime(Files.getLastModifiedTime(srcPath).toMillis(), attrs.getMTime() * 1000L);
+        } catch (IOException e) {
+            throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Failed to read the attributes of " + srcPath.toString(), e);
+        }
+    }
+
+    /**
+     * upload the files using up to sftpChannels channels of the same session in parallel, the first failure cancels all remaining uploads
+     * 
+     * @param sources resolved ExportSources
+     * @param toPath absolute path to the target folder
+     * @param remoteFiles attributes of the files that already exist remotely, mapped by their relative paths inside the target folder
+     * @param skip Visitor that is called for every file that was already delivered
+     * @return number of files in the source folders
+     * @throws SftpException
+     * @throws IOException if a source folder can not be read
+     */
+    private int copyFilesParallel(List<ExportSource> sources, Path toPath, Map<String, SftpATTRS> remoteFiles,
+            SourceFiles.Visitor<RuntimeException> skip) throws SftpException, IOException {
+        log.debug("Upload the files using " + sftpChannels + " sftp channels.");
+        // idle channels, additional ones are only opened while all others are busy, hence there is at most one per worker
+        Queue<ChannelSftp> channels = new ConcurrentLinkedQueue<>();
+        channels.add(sftpChannel);
+        try {
+            return forEachFileParallel(sources, sftpChannels, (srcPath, targetName) -> {
+                if (isDelivered(srcPath, remoteFiles.get(targetName))) {
+                    skip.visit(srcPath, targetName);
+                    return;
+                }
+                ChannelSftp channel = channels.poll();
+                if (channel == null) {
+                    // the session may have dropped while all other channels were busy
+                    channel = sftpSession.isConnected() ? openChannel() : reopenChannel(null);
+                }
+                try {
+                    channel = putFile(channel, srcPath, toPath.resolve(targetName), targetName);
+                } finally {
+                    // a broken channel is dropped so that the remaining uploads are not affected
+                    if (channel.isConnected()) {
+                        channels.add(channel);
+                    }
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JSchException) {
+                throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Failed to open an additional sftp channel.", cause);
+            }
+            throw cause instanceof SftpException ? (SftpException) cause : new SftpException(ChannelSftp.SSH_FX_FAILURE, cause.toString(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Interrupted while uploading images.", e);
+        } finally {
+            // all workers stopped, hence every channel that is still connected is idle again
+            for (ChannelSftp channel : channels) {
+                if (channel != sftpChannel) {
+                    channel.exit();
+                }
+            }
+        }
+    }
+
+    /**
+     * upload a single file and verify the remote copy, retry up to sftpUploadAttempts times if the upload or the verification fails
+     * 
+     * @param channel ChannelSftp that should be used for the upload
+     * @param srcPath absolute path to the source file
+     * @param destPath absolute path to the target file
+     * @param name relative path of the target file inside the target folder, used for the manifest
+     * @return the ChannelSftp that was used last, a new one if the given channel dropped
+     * @throws SftpException if the last attempt fails as well
+     */
+    private ChannelSftp putFile(ChannelSftp channel, Path srcPath, Path destPath, String name) throws SftpException {
+        ChannelSftp current = channel;
+        String checksum = null;
+        long size;
+        String version;
+        try {
+            size = Files.size(srcPath);
+            version = checksumCache.getVersion(srcPath);
+            throttle.acquireSlot();
+        } catch (IOException e) {
+            throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Failed to prepare the upload of " + srcPath.toString(), e);
+        }
+        try {
+            for (int attempt = 1; checksum == null; attempt++) {
+                try {
+                    checksum = uploadFile(current, srcPath, destPath);
+                    verifyRemoteFile(current, destPath, size, checksum);
+                } catch (SftpException e) {
+                    checksum = null;
+                    if (attempt >= sftpUploadAttempts || Thread.currentThread().isInterrupted()) {
+                        throw e;
+                    }
+                    log.debug("Failed to upload the file '" + srcPath.toString() + "' in attempt " + attempt + " of " + sftpUploadAttempts
+                            + ", retrying: " + e.getMessage());
+                    if (!current.isConnected()) {
+                        current = reopenChannel(current);
+                    }
+                }
+            }
+        } finally {
+            throttle.releaseSlot();
+        }
+        try {
+            checksumCache.put(srcPath, version, FileDigest.SHA_256, checksum);
+            manifest.add(name, size, checksum);
+            metrics.addFile(size);
+            if (resume) {
+                // keep the modification date of the original file, so that a later attempt can recognize the complete upload
+                current.setMtime(destPath.toString(), (int) (Files.getLastModifiedTime(srcPath).toMillis() / 1000));
+            }
+        } catch (IOException e) {
+            throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Failed to read the attributes of " + srcPath.toString(), e);
+        }
+        return current;
+    }
+
+    /**
+     * upload a single file and compute its checksum on the way, so that the local file is only read once
+     * 
+     * @param channel ChannelSftp that should be used for the upload
+     * @param srcPath absolute path to the source file
+     * @param destPath absolute path to the target file
+     * @return the SHA-256 checksum of the uploaded bytes as hex string
+     * @throws SftpException
+     */
+    private String uploadFile(ChannelSftp channel, Path srcPath, Path destPath) throws SftpException {
+        try (OutputStream out = channel.put(destPath.toString())) {
+            return pipeline.copy(srcPath, out, throttle, FileDigest.SHA_256)[0];
+        } catch (IOException e) {
+            throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Failed to upload the file " + srcPath.toString(), e);
+        }
+    }
+
+    /**
+     * JSch assures the integrity of the transfered data, but a dropped connection may still leave the remote file truncated
+     * 
+     * @param channel ChannelSftp that was used for the upload
+     * @param destPath absolute path to the remote file
+     * @param size size of the original file
+     * @param checksum SHA-256 checksum of the original file
+     * @throws SftpException if the remote file differs in size or checksum, or the remote host failed to compute its checksum
+     */
+    private void verifyRemoteFile(ChannelSftp channel, Path destPath, long size, String checksum) throws SftpException {
+        long verifyStart = System.nanoTime();
+        long remoteSize = channel.stat(destPath.toString()).getSize();
+        if (remoteSize != size) {
+            log.error("The file '" + destPath.toString() + "' is incomplete at the remote location.");
+            log.debug("size original = " + size);
+            log.debug("size remotely = " + remoteSize);
+            throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Consistency check failed for the file: " + destPath.toString());
+        }
+        if (verifyRemoteChecksum) {
+            String remoteChecksum;
+            try {
+                remoteChecksum = RemoteChecksum.sha256(sftpSession, destPath.toString());
+            } catch (JSchException | IOException e) {
+                // only this file counts as not verified, verification stays enabled for the following ones
+                throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Failed to compute the checksum of " + destPath.toString(), e);
+            }
+            if (remoteChecksum == null) {
+                // the remote host does not permit the command, the sizes have to suffice
+                log.warn("ZOP Export Plugin: " + hostname + " can not compute checksums, only the sizes of the uploaded files are verified.");
+                verifyRemoteChecksum = false;
+            } else if (!remoteChecksum.equals(checksum)) {
+                log.error("Checksum check failed for the file: '" + destPath.toString() + "'");
+                log.debug("checksum original = " + checksum);
+                log.debug("checksum remotely = " + remoteChecksum);
+                throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Checksum check failed for the file: " + destPath.toString());
+            }
+        }
+        metrics.addVerification(verifyStart);
+    }
+
+    /**
+     * 
+     * @param path absolute path of the remote folder
+     * @return attributes of the files inside the remote folder, mapped by their names
+     * @throws SftpException
+     */
+    private Map<String, SftpATTRS> listRemoteFiles(Path path) throws SftpException {
+        Map<String, SftpATTRS> remoteFiles = new HashMap<>();
+        for (Object entry : sftpChannel.ls(path.toString())) {
+            LsEntry lsEntry = (LsEntry) entry;
+            remoteFiles.put(lsEntry.getFilename(), lsEntry.getAttrs());
+        }
+        return remoteFiles;
+    }
+
+    /**
+     * 
+     * @param path whose folderName and parent will be used
+     * @param skippedFiles absolute paths of the files that were already delivered by a previous attempt, mapped by their relative paths
+     * @throws IOException
+     * @throws SftpException
+     */
+    private void createManifest(Path path, Map<String, Path> skippedFiles) throws IOException, SftpException {
+        // the manifest is created next to the folder, just like the .ctl file
+        String manifestPath = path.getParent().resolve(ChecksumManifest.getFileName(path.getFileName().toString())).toString();
+        String sizesPath = path.getParent().resolve(ChecksumManifest.getSizesFileName(path.getFileName().toString())).toString();
+        ChecksumManifest previousManifest = null;
+        if (resume) {
+            try (InputStream in = sftpChannel.get(manifestPath)) {
+                // the stream of a single channel has to be read completely before the next file can be opened
+                byte[] checksums = in.readAllBytes();
+                try (InputStream sizesIn = sftpChannel.get(sizesPath)) {
+                    previousManifest = ChecksumManifest.read(new ByteArrayInputStream(checksums), sizesIn);
+                }
+            } catch (SftpException e) {
+                log.debug("No manifest of a previous attempt found: " + manifestPath);
+            }
+        }
+        completeManifest(skippedFiles, previousManifest);
+        ByteArrayOutputStream sizes = new ByteArrayOutputStream();
+        manifest.writeSizes(sizes);
+        sftpChannel.put(new ByteArrayInputStream(sizes.toByteArray()), sizesPath);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.writeChecksums(out);
+        sftpChannel.put(new ByteArrayInputStream(out.toByteArray()), manifestPath);
+    }
+
+    /**
+     * 
+     * @param path whose folderName and parent will be used
+     * @throws SftpException
+     */
+    private void createCTL(Path path) throws SftpException {
+        // the .ctl file should have the same name as the folder specified by this path
+        String fileName = path.getFileName().toString().concat(".ctl");
+        // and it should be created next to the folder, i.e. into the folder's parent's path
+        Path destPath = path.getParent().resolve(fileName);
+        // the empty file is written directly, a local file would be shared by all exports of the same folder name
+        sftpChannel.put(new ByteArrayInputStream(new byte[0]), destPath.toString());
+    }
+
+    /**
+     * 
+     * @return ChannelSftp object opened on a pooled session
+     * @throws JSchException
+     * @throws InterruptedException
+     */
+    private ChannelSftp setupJSch() throws JSchException, InterruptedException {
+        sftpSession = SftpSessionPool.getInstance().borrowSession(username, hostname, port, keyPath);
+        return (ChannelSftp) sftpSession.openChannel("sftp");
+    }
+
+    /**
+     * 
+     * @return connected ChannelSftp object opened on the session of the current export
+     * @throws JSchException
+     */
+    private ChannelSftp openChannel() throws JSchException {
+        ChannelSftp channel = (ChannelSftp) sftpSession.openChannel("sftp");
+        channel.connect();
+        return channel;
+    }
+
+    /**
+     * replace a channel that dropped, the session of the export is replaced as well if it is no longer connected
+     * 
+     * @param broken ChannelSftp that is no longer connected, or null if only the session should be checked
+     * @return connected ChannelSftp object, which also replaces the sftpChannel if that was the broken one
+     * @throws SftpException if no new channel could be opened
+     */
+    private synchronized ChannelSftp reopenChannel(ChannelSftp broken) throws SftpException {
+        if (broken != null) {
+            broken.disconnect();
+        }
+        try {
+            if (!sftpSession.isConnected()) {
+                log.debug("The SFTP session to " + hostname + " dropped, opening a new one.");
+                // the pool discards sessions that are no longer connected and frees their slot
+                SftpSessionPool.getInstance().releaseSession(sftpSession);
+                Session session = SftpSessionPool.getInstance().borrowSession(username, hostname, port, keyPath);
+                sftpSession = session;
+            }
+            ChannelSftp channel = openChannel();
+            if (broken == sftpChannel) {
+                sftpChannel = channel;
+            }
+            return channel;
+        } catch (JSchException e) {
+            throw new SftpException(ChannelSftp.SSH_FX_CONNECTION_LOST, "Failed to reconnect to " + hostname, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SftpException(ChannelSftp.SSH_FX_CONNECTION_LOST, "Interrupted while reconnecting to " + hostname, e);
+        }
+    }
+
+}
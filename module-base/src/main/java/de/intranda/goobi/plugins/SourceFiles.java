@@ -0,0 +1,120 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Enumerates the files of the source folders lazily with a DirectoryStream, so that the first file is transferred while the folders are
+ * still being read. Just like StorageProvider.list, only regular files are considered and hidden files are skipped.
+ */
+@Log4j2
+final class SourceFiles {
+
+    /**
+     * receives the files of the source folders one by one
+     *
+     * @param <E> exception that may be thrown while handling a file
+     */
+    @FunctionalInterface
+    interface Visitor<E extends Exception> {
+        /**
+         *
+         * @param srcPath absolute path to a file in one of the source folders
+         * @param targetName relative path of the file inside the target folder
+         * @throws E
+         */
+        void visit(Path srcPath, String targetName) throws E;
+    }
+
+    private SourceFiles() {
+        // only static methods
+    }
+
+    /**
+     *
+     * @param sources resolved ExportSources
+     * @return the paths of all source folders, separated by commas
+     */
+    static String describe(List<ExportSource> sources) {
+        return StringUtils.join(sources, ", ");
+    }
+
+    /**
+     *
+     * @param sources resolved ExportSources
+     * @return true if none of the folders exists or contains a file that would be exported, the reading stops at the first file
+     * @throws IOException
+     */
+    static boolean isEmpty(List<ExportSource> sources) throws IOException {
+        for (ExportSource source : sources) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(source.getPath(), path -> isSourceFile(source, path))) {
+                if (stream.iterator().hasNext()) {
+                    return false;
+                }
+            } catch (NoSuchFileException e) {
+                // an optional folder that was not created for this process
+            } catch (DirectoryIteratorException e) {
+                throw e.getCause();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * pass every file of the folders to the visitor as soon as it is read, the folders are read one after another
+     *
+     * @param sources resolved ExportSources
+     * @param visitor Visitor that is called for every file, in the order of the directories
+     * @return number of files that were visited
+     * @throws IOException if one of the folders can not be read
+     * @throws E if the visitor fails, the remaining files are not visited then
+     */
+    static <E extends Exception> int forEach(List<ExportSource> sources, Visitor<E> visitor) throws IOException, E {
+        // the names inside of one folder are unique, hence only the names of folders that share their target with another one are kept
+        Set<String> sharedTargets = new HashSet<>();
+        Set<String> targets = new HashSet<>();
+        for (ExportSource source : sources) {
+            if (!targets.add(source.getTarget())) {
+                sharedTargets.add(source.getTarget());
+            }
+        }
+        Set<String> targetNames = new HashSet<>();
+        int files = 0;
+        for (ExportSource source : sources) {
+            boolean shared = sharedTargets.contains(source.getTarget());
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(source.getPath(), path -> isSourceFile(source, path))) {
+                for (Path path : stream) {
+                    String targetName = source.getTargetName(path.getFileName().toString());
+                    if (shared && !targetNames.add(targetName)) {
+                        log.warn("The file '" + path + "' is skipped, since another source was already exported as '" + targetName + "'.");
+                        continue;
+                    }
+                    visitor.visit(path, targetName);
+                    files++;
+                }
+            } catch (NoSuchFileException e) {
+                log.debug("The source folder '" + source.getPath() + "' does not exist.");
+            } catch (DirectoryIteratorException e) {
+                throw e.getCause();
+            }
+        }
+        return files;
+    }
+
+    private static boolean isSourceFile(ExportSource source, Path path) {
+        String fileName = path.getFileName().toString();
+        return !fileName.startsWith(".") && Files.isRegularFile(path) && source.accepts(fileName);
+    }
+
+}
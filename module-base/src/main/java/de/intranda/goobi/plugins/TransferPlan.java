@@ -0,0 +1,102 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Result of the preflight of an export: the number and size of the files that will be transferred, the usable space of the target and the
+ * expected duration. It is computed before any bytes are moved, so that an export that does not fit on the target fails before it starts.
+ */
+@Getter
+final class TransferPlan {
+
+    // added to the size of every file for the last block on the file system or the header and padding inside of a TAR archive
+    static final long FILE_OVERHEAD = 1024;
+
+    private static final double BYTES_PER_MB = 1024d * 1024d;
+
+    private final long files;
+    private final long bytes;
+    // usable bytes on the target, -1 if unknown
+    private final long usableSpace;
+    // expected throughput in MB/s, 0 if unknown
+    private final double throughput;
+
+    TransferPlan(long files, long bytes, long usableSpace, double throughput) {
+        this.files = files;
+        this.bytes = bytes;
+        this.usableSpace = usableSpace;
+        this.throughput = throughput;
+    }
+
+    /**
+     * sum up the sizes of the source files in one pass over the folders, files that were already delivered by a previous attempt are left out
+     *
+     * @param sources resolved ExportSources
+     * @param deliveredSizes sizes of the files that already exist at the target, mapped by their relative paths inside the target folder
+     * @param usableSpace usable bytes on the target, -1 if unknown
+     * @param throughput expected throughput in MB/s, 0 if unknown
+     * @return the TransferPlan of these sources
+     * @throws IOException if one of the folders can not be read
+     */
+    static TransferPlan create(List<ExportSource> sources, Map<String, Long> deliveredSizes, long usableSpace, double throughput)
+            throws IOException {
+        long[] files = new long[1];
+        long[] bytes = new long[1];
+        SourceFiles.forEach(sources, (srcPath, targetName) -> {
+            long size = Files.size(srcPath);
+            if (!Long.valueOf(size).equals(deliveredSizes.get(targetName))) {
+                files[0]++;
+                bytes[0] += size;
+            }
+        });
+        return new TransferPlan(files[0], bytes[0], usableSpace, throughput);
+    }
+
+    /**
+     *
+     * @return number of bytes the export will occupy on the target at most
+     */
+    long getRequiredSpace() {
+        return bytes + files * FILE_OVERHEAD;
+    }
+
+    /**
+     *
+     * @param reserve number of bytes that must remain free on the target after the export
+     * @return true if the export fits on the target, or if the usable space of the target is unknown
+     */
+    boolean fits(long reserve) {
+        return usableSpace < 0 || getRequiredSpace() + reserve <= usableSpace;
+    }
+
+    /**
+     *
+     * @return expected duration of the transfer in seconds, -1 if no throughput was measured yet
+     */
+    long getEstimatedSeconds() {
+        return throughput <= 0 ? -1 : Math.round(bytes / BYTES_PER_MB / throughput);
+    }
+
+    /**
+     *
+     * @return one line describing the amount of data, the usable space of the target and the expected duration
+     */
+    String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("%d files, %.1f MB", files, bytes / BYTES_PER_MB));
+        if (usableSpace >= 0) {
+            summary.append(String.format(", %.1f MB usable on the target", usableSpace / BYTES_PER_MB));
+        }
+        long seconds = getEstimatedSeconds();
+        if (seconds >= 0) {
+            summary.append(String.format(", about %d:%02d:%02d at %.1f MB/s", seconds / 3600, seconds / 60 % 60, seconds % 60, throughput));
+        }
+        return summary.toString();
+    }
+
+}
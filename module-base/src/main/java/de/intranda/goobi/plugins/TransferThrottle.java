@@ -0,0 +1,120 @@
+package de.intranda.goobi.plugins;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Limits the bandwidth and the number of concurrent file transfers of all exports to the same target, so that exports do not starve the NAS
+ * or the SSH link for other tasks. The bandwidth is shared with a token bucket that holds at most one second worth of bytes, the number of
+ * concurrent transfers with a fair semaphore. One instance exists per target and setting.
+ */
+@Log4j2
+final class TransferThrottle {
+
+    /**
+     * throttle that never blocks
+     */
+    static final TransferThrottle UNLIMITED = new TransferThrottle(0, 0);
+
+    private static final Map<String, TransferThrottle> THROTTLES = new ConcurrentHashMap<>();
+
+    // bytes per second, 0 if unlimited
+    private final long bytesPerSecond;
+    // null if unlimited
+    private final Semaphore slots;
+
+    private double tokens;
+    private long lastRefill;
+
+    TransferThrottle(long bytesPerSecond, int maxConcurrentTransfers) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.slots = maxConcurrentTransfers > 0 ? new Semaphore(maxConcurrentTransfers, true) : null;
+        this.tokens = this.bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     *
+     * @param target hostname or path root the files are transferred to
+     * @param maxBandwidth maximum bandwidth in MB/s shared by all exports to this target, 0 if unlimited
+     * @param maxConcurrentTransfers maximum number of files that are transferred to this target at the same time, 0 if unlimited
+     * @return the TransferThrottle shared by all exports to this target with the same settings
+     */
+    static TransferThrottle forTarget(String target, int maxBandwidth, int maxConcurrentTransfers) {
+        if (maxBandwidth <= 0 && maxConcurrentTransfers <= 0) {
+            return UNLIMITED;
+        }
+        // changed settings get a new instance, transfers that are still running keep the old one
+        String key = target + "#" + maxBandwidth + "#" + maxConcurrentTransfers;
+        return THROTTLES.computeIfAbsent(key, k -> {
+            log.debug("Limiting the transfers to " + target + " to " + maxBandwidth + " MB/s and " + maxConcurrentTransfers + " files at a time.");
+            return new TransferThrottle(maxBandwidth * 1024L * 1024L, maxConcurrentTransfers);
+        });
+    }
+
+    /**
+     *
+     * @return true if the bandwidth is limited
+     */
+    boolean isBandwidthLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * wait until one more file may be transferred to the target, every call must be followed by a call of releaseSlot
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    void acquireSlot() throws InterruptedIOException {
+        if (slots == null) {
+            return;
+        }
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free transfer slot.");
+        }
+    }
+
+    void releaseSlot() {
+        if (slots != null) {
+            slots.release();
+        }
+    }
+
+    /**
+     * take the given number of bytes from the bucket, waiting as long as the bucket is in debt
+     *
+     * @param bytes number of bytes that were or will be transferred
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    void acquire(long bytes) throws InterruptedIOException {
+        if (bytesPerSecond <= 0 || bytes <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(bytesPerSecond, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+            lastRefill = now;
+            // the bytes are reserved right away, following callers queue up behind the debt
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / bytesPerSecond) : 0;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling the transfer.");
+            }
+        }
+    }
+
+}
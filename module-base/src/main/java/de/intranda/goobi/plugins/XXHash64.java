@@ -0,0 +1,132 @@
+package de.intranda.goobi.plugins;
+
+import java.util.zip.Checksum;
+
+/**
+ * Streaming implementation of the 64 bit xxHash algorithm with seed 0, see https://github.com/Cyan4973/xxHash. It is not cryptographic, but
+ * detects corrupted copies at the speed of memory, which the JDK and commons-codec do not offer in 64 bit.
+ */
+final class XXHash64 implements Checksum {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE_SIZE = 32;
+
+    private final byte[] buffer = new byte[STRIPE_SIZE];
+    private int bufferSize;
+    private long totalLength;
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+
+    XXHash64() {
+        reset();
+    }
+
+    @Override
+    public void update(int b) {
+        update(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        totalLength += len;
+        if (bufferSize + len < STRIPE_SIZE) {
+            System.arraycopy(b, off, buffer, bufferSize, len);
+            bufferSize += len;
+            return;
+        }
+        int offset = off;
+        int remaining = len;
+        if (bufferSize > 0) {
+            int fill = STRIPE_SIZE - bufferSize;
+            System.arraycopy(b, offset, buffer, bufferSize, fill);
+            processStripe(buffer, 0);
+            offset += fill;
+            remaining -= fill;
+            bufferSize = 0;
+        }
+        while (remaining >= STRIPE_SIZE) {
+            processStripe(b, offset);
+            offset += STRIPE_SIZE;
+            remaining -= STRIPE_SIZE;
+        }
+        System.arraycopy(b, offset, buffer, 0, remaining);
+        bufferSize = remaining;
+    }
+
+    @Override
+    public long getValue() {
+        long hash;
+        if (totalLength >= STRIPE_SIZE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME5;
+        }
+        hash += totalLength;
+
+        int i = 0;
+        for (; i + 8 <= bufferSize; i += 8) {
+            hash ^= round(0, getLong(buffer, i));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        if (i + 4 <= bufferSize) {
+            hash ^= (getInt(buffer, i) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            i += 4;
+        }
+        for (; i < bufferSize; i++) {
+            hash ^= (buffer[i] & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    @Override
+    public void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        bufferSize = 0;
+        totalLength = 0;
+    }
+
+    private void processStripe(byte[] b, int off) {
+        v1 = round(v1, getLong(b, off));
+        v2 = round(v2, getLong(b, off + 8));
+        v3 = round(v3, getLong(b, off + 16));
+        v4 = round(v4, getLong(b, off + 24));
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        return (acc ^ round(0, value)) * PRIME1 + PRIME4;
+    }
+
+    private static long getLong(byte[] b, int off) {
+        return (getInt(b, off) & 0xFFFFFFFFL) | ((long) getInt(b, off + 4) << 32);
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+
+}
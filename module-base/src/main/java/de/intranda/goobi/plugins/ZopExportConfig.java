@@ -0,0 +1,300 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Immutable settings of one &lt;config&gt; block of plugin_intranda_export_zop.xml. All blocks are parsed at once and cached per project
+ * name until the configuration file changes on disk, so that an export does not need to read and query the XML file again.
+ */
+@Log4j2
+@Getter
+final class ZopExportConfig {
+
+    private static Map<String, ZopExportConfig> cachedConfigs;
+    private static ZopExportConfig cachedDefaultConfig;
+    private static long cachedLastModified;
+    private static int cachedBatchThreads;
+    private static int cachedAsyncThreads;
+    private static String cachedQueueFolder;
+    private static String cachedChecksumCacheFile;
+    private static int cachedChecksumCacheSize;
+
+    private final String project;
+    private final String identifier;
+    private final String volume;
+    private final String path;
+    private final boolean checkIfPathEmpty;
+    private final boolean checkFreeSpace;
+    // MB that must remain free on the target after the export
+    private final int minFreeSpace;
+    private final boolean resume;
+    private final boolean manifest;
+    private final int copyThreads;
+    private final boolean verifyCopy;
+    private final FileDigest verifyDigest;
+    private final FileTransfer.Method transferMode;
+    private final PipelinedTransfer pipeline;
+    private final boolean async;
+    private final boolean staging;
+    private final int maxBandwidth;
+    private final int maxConcurrentTransfers;
+    // folders that are exported, only the master folder if none is configured
+    private final List<ExportSource> sources;
+
+    private final ExportTransport.Type transport;
+    private final boolean sftp;
+    private final String username;
+    private final String hostname;
+    private final int port;
+    private final String keyPath;
+    private final int sftpMaxSessions;
+    private final int sftpIdleTimeout;
+    private final int sftpChannels;
+    private final int sftpUploadAttempts;
+    private final boolean verifyRemoteChecksum;
+    private final ExportPackage.Format packaging;
+    // shared by all exports of this block, null unless the transport is S3
+    private final S3Client s3Client;
+
+    ZopExportConfig(HierarchicalConfiguration config) {
+        project = getString(config, "project");
+        identifier = getString(config, "identifier");
+        volume = getString(config, "volume");
+        path = getString(config, "path");
+        checkIfPathEmpty = getBoolean(config, "checkIfPathEmpty", true);
+        checkFreeSpace = getBoolean(config, "checkFreeSpace", true);
+        minFreeSpace = Math.max(0, getInt(config, "minFreeSpace", 0));
+        resume = getBoolean(config, "resume", false);
+        manifest = getBoolean(config, "manifest", false);
+        copyThreads = Math.max(1, getInt(config, "copyThreads", 1));
+        verifyCopy = getBoolean(config, "verifyCopy", true);
+        verifyDigest = new FileDigest(FileDigest.Algorithm.parse(getString(config, "verifyDigest")),
+                Math.max(0, getInt(config, "verifyChunkSize", 0)) * 1024L * 1024L);
+        transferMode = FileTransfer.Method.parse(getString(config, "transferMode"));
+        pipeline = new PipelinedTransfer(getInt(config, "bufferCount", 4), getInt(config, "bufferSize", 1024) * 1024);
+        async = getBoolean(config, "async", false);
+        staging = getBoolean(config, "staging", false);
+        maxBandwidth = Math.max(0, getInt(config, "maxBandwidth", 0));
+        maxConcurrentTransfers = Math.max(0, getInt(config, "maxConcurrentTransfers", 0));
+        sources = getSources(config);
+
+        transport = ExportTransport.Type.parse(getString(config, "transport"), getBoolean(config, "sftp", false));
+        sftp = transport == ExportTransport.Type.SFTP;
+        username = getString(config, "username");
+        hostname = getString(config, "hostname");
+        port = getInt(config, "port", 22);
+        keyPath = getString(config, "keyPath");
+        sftpMaxSessions = getInt(config, "sftpMaxSessions", 4);
+        sftpIdleTimeout = getInt(config, "sftpIdleTimeout", 300);
+        sftpChannels = Math.max(1, getInt(config, "sftpChannels", 1));
+        sftpUploadAttempts = Math.max(1, getInt(config, "sftpUploadAttempts", 3));
+        verifyRemoteChecksum = getBoolean(config, "verifyRemoteChecksum", false);
+        packaging = ExportPackage.Format.parse(getString(config, "packaging"));
+
+        s3Client = transport == ExportTransport.Type.S3 ? createS3Client(config) : null;
+    }
+
+    /**
+     *
+     * @param pluginTitle title of the plugin, used to find its configuration file
+     * @param projectName name of the project
+     * @return the settings of the block whose project matches projectName, or of the block with project '*', or null if neither exists
+     */
+    static synchronized ZopExportConfig getConfig(String pluginTitle, String projectName) {
+        reloadIfChanged(pluginTitle);
+        // order of configuration is:
+        // 1.) project name matches
+        // 2.) project is *
+        ZopExportConfig config = cachedConfigs.get(projectName);
+        return config != null ? config : cachedDefaultConfig;
+    }
+
+    /**
+     *
+     * @param pluginTitle title of the plugin, used to find its configuration file
+     * @return maximum number of processes that are exported at the same time by a batch export
+     */
+    static synchronized int getBatchThreads(String pluginTitle) {
+        reloadIfChanged(pluginTitle);
+        return cachedBatchThreads;
+    }
+
+    /**
+     *
+     * @param pluginTitle title of the plugin, used to find its configuration file
+     * @return number of background workers that perform asynchronous exports
+     */
+    static synchronized int getAsyncThreads(String pluginTitle) {
+        reloadIfChanged(pluginTitle);
+        return cachedAsyncThreads;
+    }
+
+    /**
+     *
+     * @param pluginTitle title of the plugin, used to find its configuration file
+     * @return absolute path to the folder that keeps the jobs of asynchronous exports
+     */
+    static synchronized String getQueueFolder(String pluginTitle) {
+        reloadIfChanged(pluginTitle);
+        return cachedQueueFolder;
+    }
+
+    /**
+     *
+     * @param pluginTitle title of the plugin, used to find its configuration file
+     * @return the ChecksumCache that remembers the checksums of the source files, DISABLED if its size is 0
+     */
+    static synchronized ChecksumCache getChecksumCache(String pluginTitle) {
+        reloadIfChanged(pluginTitle);
+        return ChecksumCache.forFile(Paths.get(cachedChecksumCacheFile), cachedChecksumCacheSize);
+    }
+
+    /**
+     * 
+     * @return identifier of the location this config block exports to, null if the default destination of the project is used
+     */
+    String getTarget() {
+        if (sftp) {
+            return username + "@" + hostname + ":" + port;
+        }
+        if (s3Client != null) {
+            return s3Client.describe("");
+        }
+        return StringUtils.isBlank(path) ? null : path;
+    }
+
+    /**
+     *
+     * @param config one &lt;config&gt; block
+     * @return the S3Client of this block, or null if the endpoint or the bucket is missing or invalid
+     */
+    private static S3Client createS3Client(HierarchicalConfiguration config) {
+        String endpoint = getString(config, "s3Endpoint");
+        String bucket = getString(config, "s3Bucket");
+        if (StringUtils.isAnyBlank(endpoint, bucket)) {
+            return null;
+        }
+        // computed as long, since the largest parts that S3 accepts do not fit into an int
+        long partSize = getInt(config, "s3PartSize", 16) * 1024L * 1024L;
+        partSize = Math.min(Math.max(S3Client.MIN_PART_SIZE, partSize), S3Client.MAX_PART_SIZE);
+        try {
+            return new S3Client(endpoint, getString(config, "s3Region"), bucket, getString(config, "s3AccessKey"), getString(config, "s3SecretKey"),
+                    getBoolean(config, "s3PathStyle", false), partSize, getInt(config, "s3Threads", 4));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid s3Endpoint '" + endpoint + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static List<ExportSource> getSources(HierarchicalConfiguration config) {
+        List<ExportSource> configuredSources = new ArrayList<>();
+        for (HierarchicalConfiguration node : config.configurationsAt("source")) {
+            String folder = getString(node, "[@folder]");
+            if (StringUtils.isBlank(folder)) {
+                log.warn("Ignoring a source without the attribute folder.");
+                continue;
+            }
+            configuredSources.add(new ExportSource(folder, getString(node, "[@target]"), getString(node, "[@include]"),
+                    getString(node, "[@exclude]")));
+        }
+        return configuredSources.isEmpty() ? Collections.singletonList(ExportSource.DEFAULT) : Collections.unmodifiableList(configuredSources);
+    }
+
+    private static void reloadIfChanged(String pluginTitle) {
+        long lastModified = getLastModified(pluginTitle);
+        if (cachedConfigs == null || lastModified < 0 || lastModified != cachedLastModified) {
+            log.debug("Reading the configuration file of " + pluginTitle);
+            load(ConfigPlugins.getPluginConfig(pluginTitle));
+            cachedLastModified = lastModified;
+        }
+    }
+
+    private static void load(XMLConfiguration xmlConfig) {
+        Map<String, ZopExportConfig> configs = new HashMap<>();
+        ZopExportConfig defaultConfig = null;
+        for (HierarchicalConfiguration node : xmlConfig.configurationsAt("config")) {
+            ZopExportConfig config = new ZopExportConfig(node);
+            // given two config blocks with the same project name, the settings of the first one will be taken
+            if ("*".equals(config.getProject())) {
+                if (defaultConfig == null) {
+                    defaultConfig = config;
+                }
+            } else {
+                configs.putIfAbsent(config.getProject(), config);
+            }
+        }
+        cachedConfigs = configs;
+        cachedDefaultConfig = defaultConfig;
+        cachedBatchThreads = Math.max(1, getInt(xmlConfig, "batchThreads", 4));
+        cachedAsyncThreads = Math.max(1, getInt(xmlConfig, "asyncThreads", 2));
+        cachedQueueFolder = getString(xmlConfig, "queueFolder");
+        if (StringUtils.isBlank(cachedQueueFolder)) {
+            cachedQueueFolder = Paths.get(getTemporaryFolder(), "zop_export_queue").toString();
+        }
+        cachedChecksumCacheFile = getString(xmlConfig, "checksumCacheFile");
+        if (StringUtils.isBlank(cachedChecksumCacheFile)) {
+            cachedChecksumCacheFile = Paths.get(getTemporaryFolder(), "zop_export_checksums.txt").toString();
+        }
+        cachedChecksumCacheSize = Math.max(0, getInt(xmlConfig, "checksumCacheSize", 100000));
+    }
+
+    private static long getLastModified(String pluginTitle) {
+        try {
+            Path configFile = Paths.get(ConfigurationHelper.getInstance().getConfigurationFolder(), "plugin_" + pluginTitle + ".xml");
+            return Files.getLastModifiedTime(configFile).toMillis();
+        } catch (IOException | RuntimeException e) {
+            // without a readable modification date the configuration is read again on every export
+            log.debug("Failed to read the modification date of the configuration file: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static String getTemporaryFolder() {
+        try {
+            String folder = ConfigurationHelper.getInstance().getTemporaryFolder();
+            if (StringUtils.isNotBlank(folder)) {
+                return folder;
+            }
+        } catch (RuntimeException e) {
+            log.debug("Failed to read the temporary folder of Goobi: " + e.getMessage());
+        }
+        return System.getProperty("java.io.tmpdir");
+    }
+
+    private static String getString(HierarchicalConfiguration config, String key) {
+        return StringUtils.trimToEmpty(config.getString(key, ""));
+    }
+
+    private static boolean getBoolean(HierarchicalConfiguration config, String key, boolean defaultValue) {
+        String value = getString(config, key);
+        return StringUtils.isBlank(value) ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    private static int getInt(HierarchicalConfiguration config, String key, int defaultValue) {
+        String value = getString(config, key);
+        try {
+            return StringUtils.isBlank(value) ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for " + key + ", using " + defaultValue + " instead.");
+            return defaultValue;
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Export of a single process whose metadata is already resolved and which only waits for its transfer. Jobs are stored as small properties
+ * files, so that the queue survives a restart of Goobi workflow.
+ */
+@Getter
+@AllArgsConstructor
+final class ZopExportJob {
+
+    private static final String PROCESS_ID = "processId";
+    private static final String STEP_ID = "stepId";
+    private static final String SOURCE = "source";
+    private static final String TARGET = "target";
+    private static final String TRANSPORT = "transport";
+    private static final String CREATED = "created";
+
+    private final int processId;
+    // id of the export step that will be set to error if the transfer fails, null if unknown
+    private final Integer stepId;
+    // absolute path to the master folder
+    private final String source;
+    // absolute path to the folder that should be created, already containing the folderName
+    private final String target;
+    private final ExportTransport.Type transport;
+    private final long created;
+
+    /**
+     *
+     * @param path file the job is written to, an existing file will be replaced
+     * @throws IOException
+     */
+    void write(Path path) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(PROCESS_ID, String.valueOf(processId));
+        if (stepId != null) {
+            properties.setProperty(STEP_ID, String.valueOf(stepId));
+        }
+        properties.setProperty(SOURCE, source);
+        properties.setProperty(TARGET, target);
+        properties.setProperty(TRANSPORT, transport.name());
+        properties.setProperty(CREATED, String.valueOf(created));
+        try (OutputStream out = Files.newOutputStream(path)) {
+            properties.store(out, "ZOP export job");
+        }
+    }
+
+    /**
+     *
+     * @param path file of a job that was written before
+     * @return the ZopExportJob stored in this file
+     * @throws IOException if the file can not be read or is incomplete
+     */
+    static ZopExportJob read(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        }
+        String processId = properties.getProperty(PROCESS_ID);
+        String source = properties.getProperty(SOURCE);
+        String target = properties.getProperty(TARGET);
+        String transport = properties.getProperty(TRANSPORT);
+        if (StringUtils.isAnyBlank(processId, source, target, transport)) {
+            throw new IOException("The job file '" + path + "' is incomplete.");
+        }
+        try {
+            String stepId = properties.getProperty(STEP_ID);
+            return new ZopExportJob(Integer.parseInt(processId), StringUtils.isBlank(stepId) ? null : Integer.valueOf(stepId), source, target,
+                    ExportTransport.Type.parse(transport, false), Long.parseLong(properties.getProperty(CREATED, "0")));
+        } catch (NumberFormatException e) {
+            throw new IOException("The job file '" + path + "' is invalid.", e);
+        }
+    }
+
+}
@@ -1,17 +1,24 @@
 package de.intranda.goobi.plugins;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.configuration.SubnodeConfiguration;
-import org.apache.commons.configuration.XMLConfiguration;
-import org.apache.commons.configuration.reloading.FileChangedReloadingStrategy;
-import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.util.StringUtil;
 import org.goobi.beans.Process;
@@ -21,21 +28,15 @@ import org.goobi.production.enums.PluginType;
 import org.goobi.production.plugin.interfaces.IExportPlugin;
 import org.goobi.production.plugin.interfaces.IPlugin;
 
-import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.JSchException;
-import com.jcraft.jsch.Session;
-import com.jcraft.jsch.SftpException;
-
-import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.helper.Helper;
-import de.sub.goobi.helper.StorageProvider;
-import de.sub.goobi.helper.StorageProviderInterface;
 import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.helper.enums.StepStatus;
 import de.sub.goobi.helper.exceptions.DAOException;
 import de.sub.goobi.helper.exceptions.ExportFileException;
 import de.sub.goobi.helper.exceptions.SwapException;
 import de.sub.goobi.helper.exceptions.UghHelperException;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import de.sub.goobi.persistence.managers.StepManager;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
@@ -57,11 +58,13 @@ import ugh.exceptions.WriteException;
 public class ZopExportPlugin implements IExportPlugin, IPlugin {
 
     private static final long serialVersionUID = 1476710081498869499L;
-    private static final String ABORTION_MESSAGE = "Export aborted for process with ID ";
-    private static final String COMPLETION_MESSAGE = "Export executed for process with ID ";
+    private static final String TITLE = "intranda_export_zop";
+    static final String ABORTION_MESSAGE = "Export aborted for process with ID ";
+    static final String COMPLETION_MESSAGE = "Export executed for process with ID ";
     private static final String NAME_SEPARATOR = "-"; // used to connect the foldername's two parts for multi-volume works
+    private static final Pattern METADATA_VARIABLE = Pattern.compile("[{(]metas?\\."); // Goobi variables that need the DigitalDocument
     @Getter
-    private String title = "intranda_export_zop";
+    private String title = TITLE;
     @Getter
     private PluginType type = PluginType.Export;
     @Getter
@@ -69,14 +72,11 @@ public class ZopExportPlugin implements IExportPlugin, IPlugin {
     private Step step;
 
     @Getter
-    private List<String> problems;
+    private List<String> problems = Collections.synchronizedList(new ArrayList<>());
 
-    private transient ChannelSftp sftpChannel;
-    private String username;
-    private String hostname;
-    private int port;
-    private String keyPath;
-    private boolean checkIfPathEmpty = true;
+    private boolean checkFreeSpace = true; // false if the usable space of the target should not be compared with the size of the export
+    private long minFreeSpace = 0; // number of bytes that must remain free on the target after the export
+    private transient ExportMetrics metrics;
 
     @Override
     public void setExportFulltext(boolean arg0) {
@@ -102,19 +102,21 @@ public class ZopExportPlugin implements IExportPlugin, IPlugin {
             SwapException, DAOException, TypeNotAllowedForParentException {
 
         log.debug("=============================== Starting ZOP Export ===============================");
+        metrics = new ExportMetrics();
 
         String masterPath = process.getImagesOrigDirectory(false);
         log.debug("masterPath is: " + masterPath);
-        // assure that the source folder is not empty
-        if (new File(masterPath).list().length == 0) {
-            logBoth(process.getId(), LogType.ERROR, "There is nothing to copy from '" + masterPath + "', it is empty!");
+
+        // read information from config file
+        long phaseStart = System.nanoTime();
+        ZopExportConfig config = getConfig(process);
+        metrics.endPhase(ExportMetrics.PHASE_CONFIG, phaseStart);
+        if (config == null) {
+            logBoth(process.getId(), LogType.ERROR, "No configuration found for the project of this process.");
             logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
             return false;
         }
-
-        // read information from config file
-        SubnodeConfiguration config = getConfig(process);
-        String path = config.getString("path").trim();
+        String path = config.getPath();
         // destination will be used as default value only if <path> is not configured
         // hence we only have to assure that it is not null in that scenario
         if (StringUtils.isBlank(path)) {
@@ -125,11 +127,22 @@ public class ZopExportPlugin implements IExportPlugin, IPlugin {
             }
             path = destination;
         }
-        checkIfPathEmpty = config.getBoolean("checkIfPathEmpty", true);
+        applyConfig(config);
+
+        // assure that the source folders are not all empty
+        List<ExportSource> sources = resolveSources(process, Paths.get(masterPath), config);
+        if (sources == null) {
+            return false;
+        }
+        if (SourceFiles.isEmpty(sources)) {
+            logBoth(process.getId(), LogType.ERROR, "There is nothing to copy from '" + SourceFiles.describe(sources) + "', it is empty!");
+            logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
+            return false;
+        }
 
         // read information from config file
-        String fieldIdentifier = config.getString("identifier").trim();
-        String fieldVolume = config.getString("volume").trim();
+        String fieldIdentifier = config.getIdentifier();
+        String fieldVolume = config.getVolume();
 
         if (StringUtils.isBlank(fieldIdentifier) || StringUtils.isBlank(fieldVolume)) {
             logBoth(process.getId(), LogType.ERROR, "The configuration file for the ZOP export is incomplete.");
@@ -146,38 +159,58 @@ public class ZopExportPlugin implements IExportPlugin, IPlugin {
         boolean isOneVolumeWork = true;
 
         // read mets file to get its logical structure
+        phaseStart = System.nanoTime();
         try {
-            Fileformat ff = process.readMetadataFile();
-            DigitalDocument dd = ff.getDigitalDocument();
-            DocStruct logical = dd.getLogicalDocStruct();
             Prefs prefs = process.getRegelsatz().getPreferences();
-            VariableReplacer replacer = new VariableReplacer(dd, prefs, process, null);
+            // the METS file is only deserialized completely if the path needs metadata variables or the streaming reader is not sufficient
+            MetsMetadataReader.Result metadata = null;
+            if (!METADATA_VARIABLE.matcher(path).find()) {
+                metadata = MetsMetadataReader.read(Paths.get(process.getMetadataFilePath()), fieldIdentifier, fieldVolume);
+            }
+            if (metadata != null && StringUtils.isNotBlank(metadata.getIdentifier())
+                    && (!metadata.isAnchor() || StringUtils.isNotBlank(metadata.getVolume()))) {
+                // replace Goobi Variables in the path string, none of them needs the DigitalDocument
+                path = new VariableReplacer(null, prefs, process, null).replace(path);
+                id = metadata.getIdentifier();
+                if (metadata.isAnchor()) {
+                    isOneVolumeWork = false;
+                    volumeTitle = metadata.getVolume().replace(" ", "_");
+                }
+            } else {
+                Fileformat ff = process.readMetadataFile();
+                DigitalDocument dd = ff.getDigitalDocument();
+                DocStruct logical = dd.getLogicalDocStruct();
+                VariableReplacer replacer = new VariableReplacer(dd, prefs, process, null);
+
+                // replace Goobi Variables in the path string
+                path = replacer.replace(path);
+
+                // get the ID
+                id = findMetadata(logical, fieldIdentifier);
+
+                // get the volumeTitle if the work is composed of several volumes
+                if (logical.getType().isAnchor()) {
+                    isOneVolumeWork = false;
+                    logical = logical.getAllChildren().get(0);
+                    volumeTitle = findMetadata(logical, fieldVolume).replace(" ", "_");
+                }
+            }
 
-            // replace Goobi Variables in the path string and get the Path object of it
-            path = replacer.replace(path);
+            // get the Path object of the target
             savingPath = Paths.get(path);
             log.debug("target path = " + path);
 
-            // get the ID
-            id = findMetadata(logical, fieldIdentifier);
             // assure that id is valid
             if (StringUtils.isBlank(id)) {
                 logBoth(process.getId(), LogType.ERROR, "No valid id found. It seems that " + fieldIdentifier + " is invalid. Recheck it please.");
                 logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
                 return false;
             }
-
-            // get the volumeTitle if the work is composed of several volumes
-            if (logical.getType().isAnchor()) {
-                isOneVolumeWork = false;
-                logical = logical.getAllChildren().get(0);
-                volumeTitle = findMetadata(logical, fieldVolume).replace(" ", "_");
-                if (StringUtils.isBlank(volumeTitle)) {
-                    logBoth(process.getId(), LogType.ERROR,
-                            "No valid volumeTitle found. It seems that " + fieldVolume + " is invalid. Recheck it please.");
-                    logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
-                    return false;
-                }
+            if (!isOneVolumeWork && StringUtils.isBlank(volumeTitle)) {
+                logBoth(process.getId(), LogType.ERROR,
+                        "No valid volumeTitle found. It seems that " + fieldVolume + " is invalid. Recheck it please.");
+                logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
+                return false;
             }
 
             log.debug("isOneVolumeWork = " + isOneVolumeWork);
@@ -185,6 +218,7 @@ public class ZopExportPlugin implements IExportPlugin, IPlugin {
             if (!isOneVolumeWork) {
                 log.debug("volumeTitle = " + volumeTitle);
             }
+            metrics.endPhase(ExportMetrics.PHASE_METADATA, phaseStart);
 
         } catch (ReadException | PreferencesException | IOException | SwapException e) {
             logBoth(process.getId(), LogType.ERROR, "Error happened: " + e);
@@ -192,371 +226,458 @@ public class ZopExportPlugin implements IExportPlugin, IPlugin {
             return false;
         }
 
-        // prepare sftpChannel if necessary
-        boolean useSftp = config.getBoolean("sftp", false);
-        if (useSftp) {
-            username = config.getString("username").trim();
-            hostname = config.getString("hostname").trim();
-            port = config.getInt("port", 22);
-            keyPath = config.getString("keyPath").trim();
+        ExportTransport.Type transportType = config.getTransport();
+        boolean sftpIncomplete = transportType == ExportTransport.Type.SFTP
+                && (StringUtil.isBlank(config.getUsername()) || StringUtil.isBlank(config.getHostname()));
+        if (sftpIncomplete || (transportType == ExportTransport.Type.S3 && config.getS3Client() == null)) {
+            logBoth(process.getId(), LogType.ERROR, "The configuration file for the ZOP export is incomplete.");
+            logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
+            return false;
+        }
 
-            if (StringUtil.isBlank(username) || StringUtil.isBlank(hostname)) {
-                logBoth(process.getId(), LogType.ERROR, "The configuration file for the ZOP export is incomplete.");
-                logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
-                return false;
-            }
+        folderName = isOneVolumeWork ? id : id + NAME_SEPARATOR + volumeTitle;
+        log.debug("folderName = " + folderName);
+        savingPath = savingPath.resolve(folderName);
 
+        if (config.isAsync()) {
+            return enqueue(process, masterPath, savingPath, transportType);
+        }
+        return transfer(process, sources, savingPath, transportType, config);
+    }
+
+    /**
+     * 
+     * @param process process that is exported
+     * @param masterPath absolute path to the master folder
+     * @param config ZopExportConfig of the process
+     * @return the configured sources with their folders resolved for the process, or null if one of them is unknown
+     */
+    private List<ExportSource> resolveSources(Process process, Path masterPath, ZopExportConfig config) {
+        List<ExportSource> sources = new ArrayList<>();
+        for (ExportSource source : config.getSources()) {
             try {
-                sftpChannel = setupJSch();
-                sftpChannel.connect();
-            } catch (JSchException e) {
-                log.debug("failed to initialize sftpChannel");
-                e.printStackTrace();
-                return false;
+                sources.add(source.resolve(process, masterPath));
+            } catch (IOException | SwapException | DAOException e) {
+                logBoth(process.getId(), LogType.ERROR, "The source folder '" + source.getFolder() + "' could not be found: " + e.getMessage());
+                logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
+                return null;
             }
         }
+        return sources;
+    }
 
-        folderName = isOneVolumeWork ? id : id + NAME_SEPARATOR + volumeTitle;
-        log.debug("folderName = " + folderName);
+    /**
+     * connect to the target, create the folder and copy the images
+     * 
+     * @param process process that is exported
+     * @param sources resolved ExportSources
+     * @param savingPath absolute path to the folder that should be created, already containing the folderName
+     * @param transportType Type of the transport to the target
+     * @param config ZopExportConfig of the process
+     * @return true if the export was successful, false otherwise
+     * @throws InterruptedException if interrupted while waiting for a free SFTP session
+     */
+    private boolean transfer(Process process, List<ExportSource> sources, Path savingPath, ExportTransport.Type transportType,
+            ZopExportConfig config) throws InterruptedException {
+        ExportTransport transport = createTransport(transportType, config);
+        transport.setThrottle(
+                TransferThrottle.forTarget(transport.getThrottleTarget(savingPath), config.getMaxBandwidth(), config.getMaxConcurrentTransfers()));
+
+        // prepare the sftpChannel if necessary
+        if (!transport.connect()) {
+            transport.close();
+            return false;
+        }
 
-        // create a folder named after folderName
-        savingPath = savingPath.resolve(folderName);
-        if (!createFolder(useSftp, savingPath)) {
-            logBoth(process.getId(), LogType.ERROR, "Something went wrong trying to create the directory: " + savingPath.toString());
+        // check that the target can take all files before any bytes are moved
+        long phaseStart = System.nanoTime();
+        boolean planned = planTransfer(process, sources, savingPath, transport);
+        metrics.endPhase(ExportMetrics.PHASE_PREFLIGHT, phaseStart);
+        if (!planned) {
+            transport.close();
+            return false;
+        }
+
+        // create a folder named after folderName, or only its parent if the images are staged in a sibling folder first or packed into an archive
+        Path folderPath = transport.getFolderPath(savingPath);
+        phaseStart = System.nanoTime();
+        boolean folderCreated = createFolder(transport, folderPath);
+        metrics.endPhase(ExportMetrics.PHASE_CREATE_FOLDER, phaseStart);
+        if (!folderCreated) {
+            transport.close();
+            logBoth(process.getId(), LogType.ERROR, "Something went wrong trying to create the directory: " + folderPath.toString());
             logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
             return false;
         }
 
         // if everything went well so far, then we only need to do the copy
-        return tryCopy(process, Paths.get(masterPath), savingPath, useSftp);
+        return tryCopy(process, sources, savingPath, transport);
     }
 
     /**
      * 
-     * @param process
-     * @return SubnodeConfiguration object according to the project's name
+     * @param transportType Type of the transport to the target
+     * @param config ZopExportConfig of the process
+     * @return a new ExportTransport of this type that uses the settings of the config and writes into the journal of this export
      */
-    private SubnodeConfiguration getConfig(Process process) {
-        String projectName = process.getProjekt().getTitel();
-        log.debug("projectName = " + projectName);
-        XMLConfiguration xmlConfig = ConfigPlugins.getPluginConfig(title);
-        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
-        xmlConfig.setReloadingStrategy(new FileChangedReloadingStrategy());
-        SubnodeConfiguration conf = null;
-
-        // order of configuration is:
-        // 1.) project name matches
-        // 2.) project is *
-        try {
-            conf = xmlConfig.configurationAt("//config[./project = '" + projectName + "']");
-        } catch (IllegalArgumentException e) {
-            conf = xmlConfig.configurationAt("//config[./project = '*']");
+    private ExportTransport createTransport(ExportTransport.Type transportType, ZopExportConfig config) {
+        ChecksumCache checksumCache = ZopExportConfig.getChecksumCache(title);
+        switch (transportType) {
+            case SFTP:
+                return new SftpTransport(config, metrics, checksumCache, this::logBoth);
+            case S3:
+                return new S3Transport(config, metrics, checksumCache, this::logBoth);
+            default:
+                return new LocalTransport(config, metrics, checksumCache, this::logBoth);
         }
-
-        return conf;
     }
 
     /**
+     * sum up the sizes of the source files, compare them with the usable space of the target and record the plan in the journal
      * 
-     * @param useSftp true if use SFTP, false otherwise
-     * @param path absolute path of the target folder
-     * @return true if the folder already exists or is successfully created, false if failure happened.
+     * @param process process that is exported
+     * @param sources resolved ExportSources
+     * @param savingPath absolute path to the folder that should be created, already containing the folderName
+     * @param transport ExportTransport to the target
+     * @return true if the export fits on the target, false if it does not or if the source folders can not be read
      */
-    private boolean createFolder(boolean useSftp, Path path) {
-        if (path == null) {
-            log.error("The path provided is null!");
+    private boolean planTransfer(Process process, List<ExportSource> sources, Path savingPath, ExportTransport transport) {
+        // links and clones do not take any space on the target
+        boolean linked = transport.isSharingData(sources, savingPath);
+        long usableSpace = checkFreeSpace && !linked ? transport.getUsableSpace(savingPath) : -1;
+        double throughput = ZopExportStatistics.getInstance().getRecentThroughput();
+        if (usableSpace < 0 && throughput <= 0) {
+            // without a limit and without an estimate there is nothing the sizes of the files would be needed for
+            log.debug("The sizes of the source files are not summed up, since neither the usable space nor the throughput is known.");
+            return true;
+        }
+        TransferPlan plan;
+        try {
+            plan = TransferPlan.create(sources, transport.getDeliveredSizes(sources, savingPath), usableSpace, throughput);
+        } catch (IOException e) {
+            logBoth(process.getId(), LogType.ERROR,
+                    "The source folders '" + SourceFiles.describe(sources) + "' could not be read: " + e.getMessage());
+            logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
             return false;
         }
-        if (StringUtils.isBlank(path.toString())) {
-            log.error("The path provided is empty!");
+        logBoth(process.getId(), LogType.INFO, "Planned the export to '" + transport.describe(savingPath) + "': " + plan.getSummary());
+        if (!plan.fits(minFreeSpace)) {
+            logBoth(process.getId(), LogType.ERROR, "There is not enough space left on the target. The export needs " + plan.getRequiredSpace()
+                    + " bytes, " + minFreeSpace + " bytes have to remain free, but only " + plan.getUsableSpace() + " bytes are usable.");
+            logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
             return false;
         }
+        return true;
+    }
+
+    /**
+     * queue the transfer of an export whose metadata is already resolved, it will be performed by the workers of ZopExportQueue
+     * 
+     * @param process process that is exported
+     * @param masterPath absolute path to the master folder
+     * @param savingPath absolute path to the folder that should be created, already containing the folderName
+     * @param transportType Type of the transport to the target
+     * @return true if the job was stored in the queue, false otherwise
+     */
+    private boolean enqueue(Process process, String masterPath, Path savingPath, ExportTransport.Type transportType) {
+        Integer stepId = step == null ? null : step.getId();
+        ZopExportJob job = new ZopExportJob(process.getId(), stepId, masterPath, savingPath.toString(), transportType,
+                System.currentTimeMillis());
         try {
-            return useSftp ? createFolderSftp(path) : createFolderLocal(path);
-        } catch (SftpException e) {
-            log.error("Failed to create directory remotely: " + path.toString());
+            // the first asynchronous export starts the queue, which continues the jobs that were left by a restart
+            ZopExportQueue.getInstance(title).enqueue(job);
+        } catch (IOException e) {
+            log.error("Failed to queue the export", e);
+            logBoth(process.getId(), LogType.ERROR, "The export could not be queued: " + e.getMessage());
+            logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
             return false;
         }
+        logBoth(process.getId(), LogType.INFO, "The transfer to '" + savingPath.toString() + "' is queued and will be performed in the background.");
+        return true;
     }
 
     /**
+     * perform the transfer of a queued export, afterwards the export step is closed or set to error
      * 
-     * @param path the absolute path of the targeted folder
-     * @return true if the folder already exists or is successfully created, false if failure happens.
+     * @param job ZopExportJob taken from the queue
+     * @return true if the export was successful, false otherwise
      */
-    private boolean createFolderLocal(Path path) {
-        if (path == null) {
-            log.error("The path provided is null!");
+    boolean exportQueuedJob(ZopExportJob job) {
+        log.debug("=============================== Starting queued ZOP Export ===============================");
+        metrics = new ExportMetrics();
+        Process process = ProcessManager.getProcessById(job.getProcessId());
+        if (process == null) {
+            log.error("ZOP Export Plugin: The process with ID " + job.getProcessId() + " of a queued export does not exist anymore.");
             return false;
         }
-        if (StringUtils.isBlank(path.toString())) {
-            log.error("The path provided is empty!");
+        boolean successful = false;
+        try {
+            ZopExportConfig config = getConfig(process);
+            if (config == null) {
+                logBoth(process.getId(), LogType.ERROR, "No configuration found for the project of this process.");
+                logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
+            } else {
+                applyConfig(config);
+                List<ExportSource> sources = resolveSources(process, Paths.get(job.getSource()), config);
+                successful = sources != null && transfer(process, sources, Paths.get(job.getTarget()), job.getTransport(), config);
+            }
+        } catch (InterruptedException e) {
+            // the job stays in the queue and will be continued after the next start
+            Thread.currentThread().interrupt();
+            logBoth(process.getId(), LogType.INFO, "The queued export was interrupted and will be continued later.");
             return false;
+        } catch (RuntimeException e) {
+            logBoth(process.getId(), LogType.ERROR, "Error happened: " + e);
+            logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
         }
-        StorageProviderInterface provider = StorageProvider.getInstance();
-        if (provider.isFileExists(path)) {
-            log.debug("Directory already exisits: " + path.toString());
-            return true;
+        if (!Thread.currentThread().isInterrupted()) {
+            finishQueuedStep(process, job.getStepId(), successful);
+        }
+        return successful;
+    }
+
+    /**
+     * Goobi closes the export step as soon as startExport returns, hence the result of the transfer is recorded at the step afterwards
+     * 
+     * @param process process whose queued export is finished
+     * @param stepId id of the export step, or null if it should be looked up
+     * @param successful true if the transfer was successful
+     */
+    private void finishQueuedStep(Process process, Integer stepId, boolean successful) {
+        if (successful) {
+            logBoth(process.getId(), LogType.INFO, "The queued export is finished.");
+        }
+        Step exportStep = findExportStep(process, stepId);
+        if (exportStep == null) {
+            log.warn("ZOP Export Plugin: No export step found to report the result of the queued export of process " + process.getId());
+            return;
+        }
+        StepStatus status = successful ? StepStatus.DONE : StepStatus.ERROR;
+        if (exportStep.getBearbeitungsstatusEnum() == status) {
+            return;
         }
         try {
-            provider.createDirectories(path);
-            log.debug("Directory created: " + path.toString());
-            return true;
-        } catch (IOException e) {
-            log.error("Failed to create directory: " + path.toString());
-            return false;
+            exportStep.setBearbeitungsstatusEnum(status);
+            StepManager.saveStep(exportStep);
+            logBoth(process.getId(), successful ? LogType.INFO : LogType.DEBUG,
+                    "The step '" + exportStep.getTitel() + "' is set to " + status.name().toLowerCase(Locale.ROOT) + " by the queued export.");
+        } catch (DAOException e) {
+            log.error("Failed to set the export step of process " + process.getId() + " to " + status, e);
         }
     }
 
     /**
      * 
-     * @param path absolute path of the target folder
-     * @return true if the folder already exists or is successfully created, false if failure happened.
-     * @throws SftpException
+     * @param process process of a queued export
+     * @param stepId id of the export step, or null if it should be looked up
+     * @return the step with the given id, otherwise the export step that is still in work or else the last one that is done, null if none
+     *         exists
      */
-    private boolean createFolderSftp(Path path) throws SftpException {
-        sftpChannel.cd("/");
-        log.debug("pwd = " + sftpChannel.pwd());
-
-        boolean directoryCreated = false;
-        String pathString = path.toString();
-        String[] folders = pathString.split("/");
-        for (String folder : folders) {
-            if (".".equals(folder) || "..".equals(folder)) {
-                sftpChannel.cd(folder);
+    private static Step findExportStep(Process process, Integer stepId) {
+        Step exportStep = stepId == null ? null : StepManager.getStepById(stepId);
+        if (exportStep != null || process.getSchritte() == null) {
+            return exportStep;
+        }
+        for (Step candidate : process.getSchritte()) {
+            if (!candidate.isTypExportDMS()) {
                 continue;
             }
-            if (folder.length() > 0 && !folder.contains(".")) { // avoid creating hidden folders
-                // this is a valid folder
-                try {
-                    sftpChannel.cd(folder);
-                    log.debug("pwd = " + sftpChannel.pwd());
-                } catch (SftpException e) {
-                    // no such folder yet, hence try to create it first
-                    sftpChannel.mkdir(folder);
-                    log.debug("folder created: " + folder);
-                    sftpChannel.cd(folder);
-                    log.debug("pwd = " + sftpChannel.pwd());
-                    directoryCreated = true;
-                }
+            if (candidate.getBearbeitungsstatusEnum() == StepStatus.INWORK) {
+                return candidate;
+            }
+            if (candidate.getBearbeitungsstatusEnum() == StepStatus.DONE) {
+                // the steps are ordered, Goobi closed the step when the job was queued
+                exportStep = candidate;
             }
         }
-        // check if the directory is successfully created
-        if (sftpChannel.ls(pathString).size() >= 2) { // because of the existence of `.` and `..` in empty folders
-            String temp = directoryCreated ? "Directory created remotely: " : "Directory already exisits remotely: ";
-            log.debug(temp + path.toString());
-            return true;
-        }
-
-        return false;
+        return exportStep;
     }
 
     /**
      * 
-     * @param logical logical structure of a book as an object of DocStruct
-     * @param fieldName value of which we want inside "logical"
-     * @return the value of "fieldName" inside "logical" as String
+     * @param config ZopExportConfig whose settings should be used by this export
      */
-    private String findMetadata(DocStruct logical, String fieldName) {
-        String fieldValue = "";
-        for (Metadata md : logical.getAllMetadata()) {
-            if (md.getType().getName().equals(fieldName)) {
-                // field found
-                fieldValue = md.getValue().trim();
-                break;
-            }
-        }
-        return fieldValue;
+    private void applyConfig(ZopExportConfig config) {
+        checkFreeSpace = config.isCheckFreeSpace();
+        minFreeSpace = config.getMinFreeSpace() * 1024L * 1024L;
     }
 
     /**
+     * Export several processes in one invocation. The processes are grouped by their targets, every target is served by at most as many
+     * workers as it has pooled SFTP sessions, and all workers share one pool of batchThreads threads. Journal entries are written for every
+     * process just like for a single export.
      * 
-     * @param process
-     * @param fromPath absolute path to the source folder
-     * @param toPath absolute path to the target folder
-     * @param useSftp true if use SFTP, false otherwise
-     * @return true if the copy is successfully performed, false otherwise
+     * @param processes processes that should be exported
+     * @return one ZopExportResult per process, in the order of the given list
+     * @throws InterruptedException
      */
-    private boolean tryCopy(Process process, Path fromPath, Path toPath, boolean useSftp) {
+    public List<ZopExportResult> startBatchExport(List<Process> processes) throws InterruptedException {
+        log.debug("=============================== Starting ZOP Batch Export ===============================");
+        ZopExportResult[] results = new ZopExportResult[processes.size()];
+
+        // group the processes by their targets
+        Map<String, Queue<Integer>> processesByTarget = new LinkedHashMap<>();
+        Map<String, Integer> workersByTarget = new HashMap<>();
+        for (int i = 0; i < processes.size(); i++) {
+            Process process = processes.get(i);
+            ZopExportConfig config = getConfig(process);
+            String target = config == null ? "" : config.getTarget();
+            if (target == null) {
+                target = process.getProjekt().getDmsImportImagesPath();
+            }
+            processesByTarget.computeIfAbsent(target, k -> new ConcurrentLinkedQueue<>()).add(i);
+            // processes of the same SFTP target should not wait for each other's sessions
+            workersByTarget.put(target, config != null && config.isSftp() ? config.getSftpMaxSessions() : Integer.MAX_VALUE);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(ZopExportConfig.getBatchThreads(title));
         try {
-            return useSftp ? tryCopySftp(process, fromPath, toPath) : tryCopyLocal(process, fromPath, toPath);
-        } finally {
-            if (sftpChannel != null) {
-                sftpChannel.exit();
+            // add the workers of the different targets alternately, so that no target has to wait for all others
+            List<Callable<Void>> workers = new ArrayList<>();
+            Map<String, Integer> remainingWorkers = new LinkedHashMap<>();
+            for (Map.Entry<String, Queue<Integer>> entry : processesByTarget.entrySet()) {
+                int workerCount = Math.min(workersByTarget.get(entry.getKey()), entry.getValue().size());
+                log.debug("Exporting " + entry.getValue().size() + " processes to '" + entry.getKey() + "' using " + workerCount + " workers.");
+                remainingWorkers.put(entry.getKey(), workerCount);
             }
-            log.debug("=============================== Stopping ZOP Export ===============================");
+            while (!remainingWorkers.isEmpty()) {
+                remainingWorkers.replaceAll((target, count) -> {
+                    Queue<Integer> queue = processesByTarget.get(target);
+                    workers.add(() -> {
+                        Integer index;
+                        while ((index = queue.poll()) != null) {
+                            results[index] = exportForBatch(processes.get(index), target);
+                        }
+                        return null;
+                    });
+                    return count - 1;
+                });
+                remainingWorkers.values().removeIf(count -> count <= 0);
+            }
+            executor.invokeAll(workers);
+        } finally {
+            AbstractTransport.shutdownAndWait(executor);
         }
+
+        long successful = Arrays.stream(results).filter(r -> r != null && r.isSuccessful()).count();
+        log.info("ZOP Export Plugin: Batch export finished, " + successful + " of " + processes.size() + " processes were exported successfully.");
+        log.debug("=============================== Stopping ZOP Batch Export ===============================");
+        return Arrays.asList(results);
     }
 
     /**
      * 
-     * @param process
-     * @param fromPath absolute path to the souce folder
-     * @param toPath absolute path to the target folder
-     * @return true if the copy is successfully performed, false otherwise
+     * @param process process that should be exported
+     * @param target target of the process, used for the result only
+     * @return ZopExportResult of this process
      */
-    private boolean tryCopyLocal(Process process, Path fromPath, Path toPath) {
-        StorageProviderInterface provider = StorageProvider.getInstance();
-        if (checkIfPathEmpty && !provider.list(toPath.toString()).isEmpty()) {
-            logBoth(process.getId(), LogType.ERROR, "The directory: '" + toPath.toString() + "' is not empty!");
-            logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
-            return false;
-        }
-        // if the folder is empty, great!
+    private ZopExportResult exportForBatch(Process process, String target) {
+        long start = System.currentTimeMillis();
+        // every process gets its own plugin instance, since the export keeps its state in fields
+        ZopExportPlugin plugin = new ZopExportPlugin();
+        // the step of the batch belongs to a single process, the others have their own export steps
+        plugin.setStep(findStepOfProcess(process, step));
+        boolean successful;
         try {
-            copyImagesLocal(fromPath, toPath);
-            createCTLLocal(toPath);
-
-        } catch (IOException e) {
-            logBoth(process.getId(), LogType.ERROR,
-                    "Errors happened trying to copy from '" + fromPath.toString() + "' to '" + toPath.toString() + "'.");
-            logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
-            return false;
+            successful = plugin.startExport(process);
+        } catch (Exception e) {
+            plugin.logBoth(process.getId(), LogType.ERROR, "Error happened: " + e);
+            plugin.logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
+            successful = false;
         }
-        logBoth(process.getId(), LogType.INFO, "Images from '" + fromPath.toString() + "' are successfully copied to '" + toPath.toString() + "'.");
-        logBoth(process.getId(), LogType.INFO, COMPLETION_MESSAGE + process.getId());
-        return true;
+        return new ZopExportResult(process.getId(), process.getTitel(), target, successful, new ArrayList<>(plugin.getProblems()),
+                System.currentTimeMillis() - start);
     }
 
     /**
      * 
-     * @param process
-     * @param fromPath absolute path to the source folder
-     * @param toPath absolute path to the target folder
-     * @return true if the copy is successfully performed, false otherwise
+     * @param process process of the batch
+     * @param batchStep step the batch export was started from, may be null
+     * @return the step of the process with the same title as batchStep, or null if there is none
      */
-    private boolean tryCopySftp(Process process, Path fromPath, Path toPath) {
-        try {
-            // check if the targeted directory is empty:
-            if (checkIfPathEmpty && sftpChannel.ls(toPath.toString()).size() > 2) { // because of the existence of `.` and `..` in empty folders
-                logBoth(process.getId(), LogType.ERROR, "The directory: '" + toPath.toString() + "' is not empty!");
-                logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
-                return false;
-            }
-            // if the folder is empty, great!
-            copyImagesSftp(fromPath, toPath);
-            createCTLSftp(toPath);
-
-        } catch (SftpException e) {
-            logBoth(process.getId(), LogType.ERROR,
-                    "Errors happened trying to copy from '" + fromPath.toString() + "' to '" + username + "@" + hostname + ":" + toPath.toString()
-                            + "'.");
-            logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
-            return false;
-        } catch (IOException ee) {
-            logBoth(process.getId(), LogType.ERROR, "Errors happened trying to create the .ctl file.");
-            logBoth(process.getId(), LogType.ERROR, ABORTION_MESSAGE + process.getId());
-            return false;
+    private static Step findStepOfProcess(Process process, Step batchStep) {
+        if (batchStep == null) {
+            return null;
         }
-        logBoth(process.getId(), LogType.INFO, "Images from '" + fromPath.toString() + "' are successfully copied to '" + username + "@" + hostname
-                + ":" + toPath.toString() + "'.");
-        logBoth(process.getId(), LogType.INFO, COMPLETION_MESSAGE + process.getId());
-        return true;
+        if (batchStep.getProzess() != null && Objects.equals(batchStep.getProzess().getId(), process.getId())) {
+            return batchStep;
+        }
+        if (process.getSchritte() == null) {
+            return null;
+        }
+        return process.getSchritte().stream().filter(s -> Objects.equals(s.getTitel(), batchStep.getTitel())).findFirst().orElse(null);
     }
 
     /**
      * 
-     * @param fromPath absolute path to the source folder
-     * @param toPath absolute path to the targeted folder
-     * @throws IOException
+     * @param process
+     * @return ZopExportConfig object according to the project's name, null if there is no matching config block
      */
-    private void copyImagesLocal(Path fromPath, Path toPath) throws IOException {
-        log.debug("Copy images from '" + fromPath.toString() + "' to '" + toPath.toString() + "'.");
-        StorageProviderInterface provider = StorageProvider.getInstance();
-        List<String> files = provider.list(fromPath.toString());
-
-        for (String file : files) {
-            Path srcPath = fromPath.resolve(file);
-            Path destPath = toPath.resolve(file);
-            provider.copyFile(srcPath, destPath);
-
-            // get the checksums of the original file and the copy
-            String fromChecksum = DigestUtils.sha256Hex(Files.newInputStream(srcPath));
-            String toChecksum = DigestUtils.sha256Hex(Files.newInputStream(destPath));
-
-            // compare these two checksums
-            // if they are not equal, then something went wrong during the copy process of this file
-            if (!fromChecksum.equals(toChecksum)) {
-                // retry once
-                provider.deleteFile(destPath);
-                provider.copyFile(srcPath, destPath);
-                toChecksum = DigestUtils.sha256Hex(Files.newInputStream(destPath));
-                // if still not equal, delete the already copied contents and throw an IOException
-                if (!fromChecksum.equals(toChecksum)) {
-                    log.error("Checksum check failed twice while trying to copy the file: '" + srcPath.toString() + "'");
-                    log.debug("checksum original = " + fromChecksum);
-                    log.debug("checksum after copy = " + toChecksum);
-                    log.debug("Already copied contents will be deleted.");
-                    provider.deleteInDir(toPath);
-                    provider.deleteDir(toPath);
-                    throw new IOException("Checksum check failed twice!");
-                }
-            }
-        }
+    private ZopExportConfig getConfig(Process process) {
+        String projectName = process.getProjekt().getTitel();
+        log.debug("projectName = " + projectName);
+        return ZopExportConfig.getConfig(title, projectName);
     }
 
     /**
-     * @param fromPath absolute path to the source folder
-     * @param toPath absolute path to the target folder
-     * @throws SftpException
+     * 
+     * @param transport ExportTransport to the target
+     * @param path absolute path of the target folder
+     * @return true if the folder already exists or is successfully created, false if failure happened.
      */
-    private void copyImagesSftp(Path fromPath, Path toPath) throws SftpException {
-        log.debug("Copy images from '" + fromPath.toString() + "' to '" + username + "@" + hostname + ":" + toPath.toString() + "'.");
-        StorageProviderInterface provider = StorageProvider.getInstance();
-        List<String> files = provider.list(fromPath.toString());
-        for (String file : files) {
-            Path srcPath = fromPath.resolve(file);
-            Path destPath = toPath.resolve(file);
-            sftpChannel.put(srcPath.toString(), destPath.toString());
+    private boolean createFolder(ExportTransport transport, Path path) {
+        if (path == null) {
+            log.error("The path provided is null!");
+            return false;
+        }
+        if (StringUtils.isBlank(path.toString())) {
+            log.error("The path provided is empty!");
+            return false;
+        }
+        try {
+            return transport.createFolder(path);
+        } catch (IOException e) {
+            log.error("Failed to create directory: " + transport.describe(path));
+            return false;
         }
-
-        // No need for a checksum checking logic here, since the JSch library uses its internal algorithms to assure the integrity of transfered data.
     }
 
     /**
      * 
-     * @param path whose folderName and parent will be used
-     * @throws IOException
+     * @param logical logical structure of a book as an object of DocStruct
+     * @param fieldName value of which we want inside "logical"
+     * @return the value of "fieldName" inside "logical" as String
      */
-    private void createCTLLocal(Path path) throws IOException {
-        // the .ctl file should have the same name as the folder specified by this path
-        String fileName = path.getFileName().toString().concat(".ctl");
-        // and it should be created next to the folder, i.e. into the folder's parent's path
-        Path parentPath = path.getParent();
-        try {
-            Files.createFile(parentPath.resolve(fileName));
-        } catch (IOException e) {
-            log.debug("Some error happened while trying to create the .ctl file.");
-            throw e;
+    private String findMetadata(DocStruct logical, String fieldName) {
+        String fieldValue = "";
+        for (Metadata md : logical.getAllMetadata()) {
+            if (md.getType().getName().equals(fieldName)) {
+                // field found
+                fieldValue = md.getValue().trim();
+                break;
+            }
         }
+        return fieldValue;
     }
 
     /**
      * 
-     * @param path whose folderName and parent will be used
-     * @throws IOException
-     * @throws SftpException
+     * @param process
+     * @param sources resolved ExportSources
+     * @param toPath absolute path to the target folder
+     * @param transport ExportTransport to the target, it is closed afterwards
+     * @return true if the copy is successfully performed, false otherwise
      */
-    private void createCTLSftp(Path path) throws IOException, SftpException {
-        // the .ctl file should have the same name as the folder specified by this path
-        String fileName = path.getFileName().toString().concat(".ctl");
-        // and it should be created next to the folder, i.e. into the folder's parent's path
-        Path parentPath = path.getParent();
-        StorageProviderInterface provider = StorageProvider.getInstance();
+    private boolean tryCopy(Process process, List<ExportSource> sources, Path toPath, ExportTransport transport) {
+        boolean successful = false;
         try {
-            // create the empty .ctl file locally under the default temporary folder, e.g. /tmp for Linux
-            Path srcPath = Path.of(System.getProperty("java.io.tmpdir"), fileName);
-            Files.createFile(srcPath);
-
-            // copy this .ctl file to the remote location
-            Path destPath = parentPath.resolve(fileName);
-            sftpChannel.put(srcPath.toString(), destPath.toString());
-
-            // remove the local .ctl file
-            provider.deleteFile(srcPath);
-        } catch (IOException e) {
-            log.debug("Some error happened while trying to create the .ctl file locally.");
-            throw e;
+            successful = transport.copy(process, sources, toPath);
+            return successful;
+        } finally {
+            transport.close();
+            ZopExportStatistics.getInstance().record(metrics, successful);
+            logBoth(process.getId(), successful ? LogType.INFO : LogType.DEBUG, "Export statistics: " + metrics.getSummary());
+            log.debug("=============================== Stopping ZOP Export ===============================");
         }
     }
 
@@ -582,24 +703,12 @@ public class ZopExportPlugin implements IExportPlugin, IPlugin {
                 log.info(logMessage);
                 break;
         }
+        if (logType == LogType.ERROR) {
+            problems.add(message);
+        }
         if (processId > 0) {
             Helper.addMessageToProcessJournal(processId, logType, logMessage);
         }
     }
 
-    /**
-     * 
-     * @return ChannelSftp object
-     * @throws JSchException
-     */
-    private ChannelSftp setupJSch() throws JSchException {
-        JSch.setConfig("StrictHostKeyChecking", "no");
-        JSch jsch = new JSch();
-        jsch.addIdentity(keyPath);
-        Session jschSession = jsch.getSession(username, hostname);
-        jschSession.setPort(port);
-        jschSession.connect();
-        return (ChannelSftp) jschSession.openChannel("sftp");
-    }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,160 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Durable queue of asynchronous exports. Every job is stored as a file in the queue folder before startExport returns, and is processed by a
+ * pool of background workers. A worker claims a job by renaming it, and deletes it once the transfer is finished, so that jobs that were
+ * waiting or running when Goobi workflow stopped are processed again once the queue is started by the next asynchronous export. Idle workers
+ * stop after a while, hence a queue that is left behind by a reloaded plugin does not keep any threads alive.
+ */
+@Log4j2
+final class ZopExportQueue {
+
+    static final String JOB_EXTENSION = ".job";
+    static final String RUNNING_EXTENSION = ".running";
+    private static final long IDLE_TIMEOUT_SECONDS = 60;
+
+    private static ZopExportQueue instance;
+
+    private final Path folder;
+    private final ExecutorService executor;
+    // performs the transfer of a job, returns true if it was successful
+    private final Predicate<ZopExportJob> runner;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    ZopExportQueue(Path folder, int threads, Predicate<ZopExportJob> runner) {
+        this.folder = folder;
+        this.runner = runner;
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "zop-export-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    /**
+     * get the queue of this plugin, it is created and continues the jobs that are left from a previous run on the first call
+     *
+     * @param pluginTitle title of the plugin, used to find its configuration file
+     * @return the ZopExportQueue shared by all exports
+     */
+    static synchronized ZopExportQueue getInstance(String pluginTitle) {
+        if (instance == null) {
+            instance = new ZopExportQueue(Paths.get(ZopExportConfig.getQueueFolder(pluginTitle)), ZopExportConfig.getAsyncThreads(pluginTitle),
+                    job -> new ZopExportPlugin().exportQueuedJob(job));
+            instance.resumePendingJobs();
+        }
+        return instance;
+    }
+
+    /**
+     * store the job in the queue folder and schedule it
+     *
+     * @param job ZopExportJob that should be processed
+     * @throws IOException if the job could not be stored
+     */
+    void enqueue(ZopExportJob job) throws IOException {
+        Files.createDirectories(folder);
+        // the creation time keeps the jobs in order after a restart, the counter separates jobs of the same millisecond
+        String name = String.format("%013d-%04d-%d", job.getCreated(), counter.incrementAndGet() % 10000, job.getProcessId());
+        Path temporaryFile = folder.resolve(name + ".tmp");
+        Path jobFile = folder.resolve(name + JOB_EXTENSION);
+        job.write(temporaryFile);
+        // only complete job files are ever visible to the workers
+        Files.move(temporaryFile, jobFile, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Queued the export of process " + job.getProcessId() + " as " + jobFile);
+        schedule(jobFile);
+    }
+
+    /**
+     * schedule all jobs of the queue folder, jobs that were running when Goobi workflow stopped are started again
+     */
+    void resumePendingJobs() {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        List<Path> jobFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(RUNNING_EXTENSION)) {
+                    Path jobFile = folder.resolve(name.substring(0, name.length() - RUNNING_EXTENSION.length()) + JOB_EXTENSION);
+                    Files.move(path, jobFile, StandardCopyOption.ATOMIC_MOVE);
+                    jobFiles.add(jobFile);
+                } else if (name.endsWith(JOB_EXTENSION)) {
+                    jobFiles.add(path);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Failed to read the queue folder " + folder, e);
+        }
+        Collections.sort(jobFiles);
+        if (!jobFiles.isEmpty()) {
+            log.info("ZOP Export Plugin: Resuming " + jobFiles.size() + " queued exports.");
+        }
+        for (Path jobFile : jobFiles) {
+            schedule(jobFile);
+        }
+    }
+
+    private void schedule(Path jobFile) {
+        executor.execute(() -> process(jobFile));
+    }
+
+    private void process(Path jobFile) {
+        String name = jobFile.getFileName().toString();
+        Path runningFile = folder.resolve(name.substring(0, name.length() - JOB_EXTENSION.length()) + RUNNING_EXTENSION);
+        try {
+            Files.move(jobFile, runningFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // the job was already claimed
+            return;
+        } catch (IOException e) {
+            log.error("Failed to claim the queued export " + jobFile, e);
+            return;
+        }
+
+        try {
+            ZopExportJob job = ZopExportJob.read(runningFile);
+            log.debug("Starting the queued export of process " + job.getProcessId());
+            boolean successful = runner.test(job);
+            log.debug("Finished the queued export of process " + job.getProcessId() + (successful ? " successfully." : " with errors."));
+        } catch (IOException e) {
+            log.error("Failed to read the queued export " + runningFile, e);
+        } catch (RuntimeException e) {
+            log.error("The queued export " + runningFile + " failed", e);
+        } finally {
+            if (!Thread.currentThread().isInterrupted()) {
+                // failed jobs are reported by the runner, they are not repeated
+                try {
+                    Files.deleteIfExists(runningFile);
+                } catch (IOException e) {
+                    log.error("Failed to remove the finished export " + runningFile, e);
+                }
+            }
+        }
+    }
+
+}
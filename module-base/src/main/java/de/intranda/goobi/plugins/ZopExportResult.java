@@ -0,0 +1,24 @@
+package de.intranda.goobi.plugins;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of the export of a single process within a batch export.
+ */
+@Getter
+@AllArgsConstructor
+public class ZopExportResult {
+
+    private final int processId;
+    private final String processTitle;
+    // local path or username@hostname:port the process was exported to
+    private final String target;
+    private final boolean successful;
+    // error messages that were also written to the journal of the process
+    private final List<String> problems;
+    private final long durationMillis;
+
+}
@@ -0,0 +1,123 @@
+package de.intranda.goobi.plugins;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Sums up the metrics of all exports since the start of the application and publishes them via JMX.
+ */
+@Log4j2
+final class ZopExportStatistics implements ZopExportStatisticsMBean {
+
+    private static final String OBJECT_NAME = "de.intranda.goobi.plugins:type=ZopExportStatistics";
+    // weight of the latest export in the moving average of the throughput
+    private static final double THROUGHPUT_WEIGHT = 0.3;
+    private static final String[] PHASES = { ExportMetrics.PHASE_CONFIG, ExportMetrics.PHASE_METADATA, ExportMetrics.PHASE_CONNECT,
+            ExportMetrics.PHASE_PREFLIGHT, ExportMetrics.PHASE_CREATE_FOLDER, ExportMetrics.PHASE_TRANSFER, ExportMetrics.PHASE_VERIFY,
+            ExportMetrics.PHASE_MANIFEST, ExportMetrics.PHASE_PUBLISH, ExportMetrics.PHASE_CREATE_CTL };
+
+    private static final ZopExportStatistics INSTANCE = new ZopExportStatistics();
+
+    private long exports;
+    private long failedExports;
+    private long transferredFiles;
+    private long transferredBytes;
+    private double recentThroughput;
+    private double lastThroughput;
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+
+    private ZopExportStatistics() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                // registered by a previously loaded version of this plugin
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+        } catch (JMException | RuntimeException e) {
+            log.warn("Failed to register the ZOP export statistics via JMX: " + e.getMessage());
+        }
+    }
+
+    static ZopExportStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 
+     * @param metrics ExportMetrics of a finished export
+     * @param successful true if the export succeeded, false otherwise
+     */
+    synchronized void record(ExportMetrics metrics, boolean successful) {
+        exports++;
+        if (!successful) {
+            failedExports++;
+        }
+        transferredFiles += metrics.getFiles();
+        transferredBytes += metrics.getBytes();
+        for (String phase : PHASES) {
+            phaseMillis.merge(phase, metrics.getPhaseMillis(phase), Long::sum);
+        }
+        double throughput = metrics.getThroughput();
+        if (throughput > 0) {
+            lastThroughput = throughput;
+            recentThroughput = recentThroughput == 0 ? throughput : THROUGHPUT_WEIGHT * throughput + (1 - THROUGHPUT_WEIGHT) * recentThroughput;
+        }
+    }
+
+    @Override
+    public synchronized long getExports() {
+        return exports;
+    }
+
+    @Override
+    public synchronized long getFailedExports() {
+        return failedExports;
+    }
+
+    @Override
+    public synchronized long getTransferredFiles() {
+        return transferredFiles;
+    }
+
+    @Override
+    public synchronized long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * @return moving average of the throughput of the recent exports in MB/s
+     */
+    @Override
+    public synchronized double getRecentThroughput() {
+        return recentThroughput;
+    }
+
+    /**
+     * @return throughput of the last export in MB/s
+     */
+    @Override
+    public synchronized double getLastThroughput() {
+        return lastThroughput;
+    }
+
+    /**
+     * @return total duration of every phase in milliseconds
+     */
+    @Override
+    public synchronized String getPhaseMillis() {
+        return phaseMillis.toString();
+    }
+
+}
@@ -0,0 +1,22 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * Management interface of the cumulative ZOP export statistics, registered as de.intranda.goobi.plugins:type=ZopExportStatistics.
+ */
+public interface ZopExportStatisticsMBean {
+
+    long getExports();
+
+    long getFailedExports();
+
+    long getTransferredFiles();
+
+    long getTransferredBytes();
+
+    double getRecentThroughput();
+
+    double getLastThroughput();
+
+    String getPhaseMillis();
+
+}
@@ -0,0 +1,106 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChecksumCacheTest {
+
+    private static final FileTime TIME = FileTime.fromMillis(1_000_000_000_000L);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path createFile(String name, int seed) throws Exception {
+        Path path = folder.getRoot().toPath().resolve(name);
+        writeContent(path, seed);
+        return path;
+    }
+
+    private void writeContent(Path path, int seed) throws Exception {
+        byte[] content = new byte[1000];
+        new Random(seed).nextBytes(content);
+        Files.write(path, content);
+        Files.setLastModifiedTime(path, TIME);
+    }
+
+    private Path cacheFile() {
+        return folder.getRoot().toPath().resolve("cache").resolve("checksums.txt");
+    }
+
+    @Test
+    public void testUnchangedFileIsNotReadAgain() throws Exception {
+        Path file = createFile("00000001.tif", 1);
+        String checksum = DigestUtils.sha256Hex(Files.readAllBytes(file));
+        ChecksumCache cache = new ChecksumCache(cacheFile(), 10);
+        assertEquals(checksum, cache.checksum(file, FileDigest.SHA_256));
+
+        // same size and modification date, hence the remembered checksum is returned
+        writeContent(file, 2);
+        assertEquals(checksum, cache.checksum(file, FileDigest.SHA_256));
+        // other digests have their own entries
+        assertEquals(new FileDigest(FileDigest.Algorithm.CRC32C, 0).checksum(file), cache.checksum(file, new FileDigest(FileDigest.Algorithm.CRC32C,
+                0)));
+
+        // a new modification date invalidates the entry
+        Files.setLastModifiedTime(file, FileTime.fromMillis(TIME.toMillis() + 1000));
+        assertEquals(DigestUtils.sha256Hex(Files.readAllBytes(file)), cache.checksum(file, FileDigest.SHA_256));
+    }
+
+    @Test
+    public void testEntriesArePersisted() throws Exception {
+        Path file = createFile("00000001.tif", 1);
+        String checksum = DigestUtils.sha256Hex(Files.readAllBytes(file));
+        new ChecksumCache(cacheFile(), 10).checksum(file, FileDigest.SHA_256);
+
+        writeContent(file, 2);
+        assertEquals(checksum, new ChecksumCache(cacheFile(), 10).checksum(file, FileDigest.SHA_256));
+    }
+
+    @Test
+    public void testPutIgnoresChangedFiles() throws Exception {
+        Path file = createFile("00000001.tif", 1);
+        ChecksumCache cache = new ChecksumCache(cacheFile(), 10);
+        String version = cache.getVersion(file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(TIME.toMillis() + 1000));
+        cache.put(file, version, FileDigest.SHA_256, "0000");
+
+        assertEquals(DigestUtils.sha256Hex(Files.readAllBytes(file)), cache.checksum(file, FileDigest.SHA_256));
+        assertNull(ChecksumCache.DISABLED.getVersion(file));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+        ChecksumCache cache = new ChecksumCache(cacheFile(), 2);
+        Path first = createFile("00000001.tif", 1);
+        Path second = createFile("00000002.tif", 2);
+        Path third = createFile("00000003.tif", 3);
+        String firstChecksum = cache.checksum(first, FileDigest.SHA_256);
+        cache.checksum(second, FileDigest.SHA_256);
+        cache.checksum(first, FileDigest.SHA_256);
+        cache.checksum(third, FileDigest.SHA_256);
+        for (int i = 4; i < 10; i++) {
+            cache.put(third, cache.getVersion(third), new FileDigest(FileDigest.Algorithm.SHA_256, i), "0000" + i);
+        }
+
+        // the file is compacted once it contains more than twice the number of entries
+        assertTrue(Files.readAllLines(cacheFile()).size() <= 4);
+        // the entry of the first file was evicted, hence its changed content is read again
+        writeContent(first, 4);
+        String newChecksum = new ChecksumCache(cacheFile(), 2).checksum(first, FileDigest.SHA_256);
+        assertEquals(DigestUtils.sha256Hex(Files.readAllBytes(first)), newChecksum);
+        assertNotEquals(firstChecksum, newChecksum);
+    }
+
+}
@@ -0,0 +1,82 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChecksumCopierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void testCopyReturnsChecksumOfSource() throws Exception {
+        byte[] content = createContent(3 * 1024 * 1024 + 17);
+        Path src = folder.newFile("src.tif").toPath();
+        Files.write(src, content);
+        Path dest = folder.getRoot().toPath().resolve("dest.tif");
+
+        String checksum = ChecksumCopier.copy(src, dest, false, TransferThrottle.UNLIMITED, PipelinedTransfer.DEFAULT, FileDigest.SHA_256)[0];
+
+        assertEquals(DigestUtils.sha256Hex(content), checksum);
+        assertArrayEquals(content, Files.readAllBytes(dest));
+    }
+
+    @Test
+    public void testCopyReturnsAllDigests() throws Exception {
+        byte[] content = createContent(2 * 1024 * 1024 + 5);
+        Path src = folder.newFile("src.tif").toPath();
+        Files.write(src, content);
+        Path dest = folder.getRoot().toPath().resolve("dest.tif");
+        FileDigest chunked = new FileDigest(FileDigest.Algorithm.XXHASH64, 1024 * 1024);
+
+        String[] checksums = ChecksumCopier.copy(src, dest, false, TransferThrottle.UNLIMITED, PipelinedTransfer.DEFAULT, chunked,
+                FileDigest.SHA_256);
+
+        assertEquals(chunked.checksum(src), checksums[0]);
+        assertEquals(DigestUtils.sha256Hex(content), checksums[1]);
+        assertArrayEquals(content, Files.readAllBytes(dest));
+    }
+
+    @Test
+    public void testCopyOverwritesExistingFile() throws Exception {
+        byte[] content = createContent(1024);
+        Path src = folder.newFile("src.tif").toPath();
+        Files.write(src, content);
+        Path dest = folder.newFile("dest.tif").toPath();
+        Files.write(dest, createContent(4096));
+
+        ChecksumCopier.copy(src, dest, true, TransferThrottle.UNLIMITED, PipelinedTransfer.DEFAULT);
+
+        assertArrayEquals(content, Files.readAllBytes(dest));
+    }
+
+    @Test
+    public void testCopyKeepsModificationDate() throws Exception {
+        Path src = folder.newFile("src.tif").toPath();
+        Files.write(src, createContent(10));
+        FileTime time = FileTime.fromMillis(1_000_000_000_000L);
+        Files.setLastModifiedTime(src, time);
+        Path dest = folder.getRoot().toPath().resolve("dest.tif");
+
+        ChecksumCopier.copy(src, dest, false, TransferThrottle.UNLIMITED, PipelinedTransfer.DEFAULT);
+
+        assertEquals(time, Files.getLastModifiedTime(dest));
+    }
+
+}
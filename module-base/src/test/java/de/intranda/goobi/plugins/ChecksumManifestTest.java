@@ -0,0 +1,75 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ChecksumManifestTest {
+
+    @Test
+    public void testWriteIsSortedByFileName() throws Exception {
+        ChecksumManifest manifest = new ChecksumManifest();
+        manifest.add("00000002.tif", 20, "bbbb");
+        manifest.add("00000001.tif", 10, "aaaa");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.writeChecksums(out);
+        ByteArrayOutputStream sizes = new ByteArrayOutputStream();
+        manifest.writeSizes(sizes);
+
+        // the checksums can be verified with sha256sum -c
+        assertEquals("aaaa  00000001.tif\nbbbb  00000002.tif\n", out.toString(StandardCharsets.UTF_8));
+        assertEquals("10  00000001.tif\n20  00000002.tif\n", sizes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadWhatWasWritten() throws Exception {
+        ChecksumManifest manifest = new ChecksumManifest();
+        manifest.add("file with spaces.tif", 42, "abcdef");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.writeChecksums(out);
+        ByteArrayOutputStream sizes = new ByteArrayOutputStream();
+        manifest.writeSizes(sizes);
+
+        ChecksumManifest read = ChecksumManifest.read(new ByteArrayInputStream(out.toByteArray()), new ByteArrayInputStream(sizes.toByteArray()));
+
+        assertEquals(1, read.size());
+        assertTrue(read.contains("file with spaces.tif"));
+        assertEquals("abcdef", read.getChecksum("file with spaces.tif", 42));
+    }
+
+    @Test
+    public void testGetChecksumGivenDifferentSize() {
+        ChecksumManifest manifest = new ChecksumManifest();
+        manifest.add("00000001.tif", 10, "aaaa");
+        assertNull(manifest.getChecksum("00000001.tif", 11));
+        assertNull(manifest.getChecksum("00000002.tif", 10));
+    }
+
+    @Test
+    public void testReadSkipsBrokenLines() throws Exception {
+        String checksums = "aaaa *00000001.tif\nbroken\nbbbb  00000002.tif\ncccc  00000003.tif\n";
+        String sizes = "10  00000001.tif\nnotANumber  00000002.tif\n";
+        ChecksumManifest read = ChecksumManifest.read(new ByteArrayInputStream(checksums.getBytes(StandardCharsets.UTF_8)),
+                new ByteArrayInputStream(sizes.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1, read.size());
+        assertEquals("aaaa", read.getChecksum("00000001.tif", 10));
+        assertFalse(read.contains("00000002.tif"));
+        // files without a size can not be compared
+        assertFalse(read.contains("00000003.tif"));
+    }
+
+    @Test
+    public void testGetFileName() {
+        assertEquals("990012345-2020.sha256", ChecksumManifest.getFileName("990012345-2020"));
+        assertEquals("990012345-2020.sizes", ChecksumManifest.getSizesFileName("990012345-2020"));
+    }
+
+}
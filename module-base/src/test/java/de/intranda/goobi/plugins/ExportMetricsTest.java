@@ -0,0 +1,53 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ExportMetricsTest {
+
+    @Test
+    public void testFilesAndBytesAreSummedUp() {
+        ExportMetrics metrics = new ExportMetrics();
+        metrics.addFile(100);
+        metrics.addFile(200);
+        assertEquals(2, metrics.getFiles());
+        assertEquals(300, metrics.getBytes());
+    }
+
+    @Test
+    public void testPhasesAreSummedUp() {
+        ExportMetrics metrics = new ExportMetrics();
+        long now = System.nanoTime();
+        metrics.endPhase(ExportMetrics.PHASE_TRANSFER, now - TimeUnit.MILLISECONDS.toNanos(1000));
+        metrics.endPhase(ExportMetrics.PHASE_TRANSFER, now - TimeUnit.MILLISECONDS.toNanos(1000));
+        assertTrue(metrics.hasPhase(ExportMetrics.PHASE_TRANSFER));
+        assertFalse(metrics.hasPhase(ExportMetrics.PHASE_CONNECT));
+        assertTrue(metrics.getPhaseMillis(ExportMetrics.PHASE_TRANSFER) >= 2000);
+    }
+
+    @Test
+    public void testThroughput() {
+        ExportMetrics metrics = new ExportMetrics();
+        assertEquals(0, metrics.getThroughput(), 0);
+        metrics.addFile(100L * 1024 * 1024);
+        metrics.endPhase(ExportMetrics.PHASE_TRANSFER, System.nanoTime() - TimeUnit.SECONDS.toNanos(10));
+        assertEquals(10, metrics.getThroughput(), 0.1);
+    }
+
+    @Test
+    public void testSummaryContainsPhasesAndVerification() {
+        ExportMetrics metrics = new ExportMetrics();
+        metrics.endPhase(ExportMetrics.PHASE_CONFIG, System.nanoTime());
+        metrics.addVerification(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+        String summary = metrics.getSummary();
+        assertTrue(summary, summary.startsWith("0 files"));
+        assertTrue(summary, summary.contains(ExportMetrics.PHASE_CONFIG + " "));
+        assertTrue(summary, summary.contains(ExportMetrics.PHASE_VERIFY + " "));
+    }
+
+}
@@ -0,0 +1,103 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExportPackageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path createFile(String name, int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Path path = folder.getRoot().toPath().resolve(name);
+        Files.write(path, content);
+        return path;
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(ExportPackage.Format.NONE, ExportPackage.Format.parse(""));
+        assertEquals(ExportPackage.Format.NONE, ExportPackage.Format.parse("none"));
+        assertEquals(ExportPackage.Format.NONE, ExportPackage.Format.parse("zip"));
+        assertEquals(ExportPackage.Format.TAR, ExportPackage.Format.parse(" TAR "));
+        assertEquals(ExportPackage.Format.TAR_GZ, ExportPackage.Format.parse("tar.gz"));
+    }
+
+    @Test
+    public void testTar() throws Exception {
+        Path first = createFile("00000001.tif", 70_000);
+        Path second = createFile("00000001.xml", 1_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String checksum;
+        try (ExportPackage archive = new ExportPackage(out, ExportPackage.Format.TAR)) {
+            checksum = archive.add(first, "00000001.tif", TransferThrottle.UNLIMITED);
+            archive.add(second, "alto/00000001.xml", TransferThrottle.UNLIMITED);
+            archive.finish();
+            assertEquals(out.size(), archive.getSize());
+            assertEquals(DigestUtils.sha256Hex(out.toByteArray()), archive.getChecksum());
+        }
+        assertEquals(DigestUtils.sha256Hex(Files.readAllBytes(first)), checksum);
+
+        try (TarArchiveInputStream in = new TarArchiveInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEntry(in, "00000001.tif", first);
+            assertEntry(in, "alto/00000001.xml", second);
+            assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test
+    public void testTarGzIsCompleteAfterFinish() throws Exception {
+        // a long name needs the POSIX extension of the TAR format
+        String name = "media/" + "x".repeat(120) + ".jpg";
+        Path file = createFile("00000001.jpg", 10_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExportPackage archive = new ExportPackage(out, ExportPackage.Format.TAR_GZ)) {
+            archive.add(file, name, TransferThrottle.UNLIMITED);
+            archive.finish();
+            // the gzip trailer has to be written before the size and the checksum are used for the verification
+            assertEquals(out.size(), archive.getSize());
+            assertEquals(DigestUtils.sha256Hex(out.toByteArray()), archive.getChecksum());
+        }
+
+        try (TarArchiveInputStream in = new TarArchiveInputStream(new GzipCompressorInputStream(new ByteArrayInputStream(out.toByteArray())))) {
+            assertEntry(in, name, file);
+            assertNull(in.getNextEntry());
+        }
+    }
+
+    private void assertEntry(TarArchiveInputStream in, String name, Path file) throws Exception {
+        TarArchiveEntry entry = in.getNextEntry();
+        assertEquals(name, entry.getName());
+        assertEquals(Files.size(file), entry.getSize());
+        assertArrayEquals(Files.readAllBytes(file), readAll(in));
+    }
+
+    private byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+}
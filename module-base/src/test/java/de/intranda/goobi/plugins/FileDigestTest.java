@@ -0,0 +1,112 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileDigestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path createFile(int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Path path = folder.getRoot().toPath().resolve(size + ".tif");
+        Files.write(path, content);
+        return path;
+    }
+
+    private String streamChecksum(FileDigest digest, byte[] content, int step) {
+        FileDigest.Stream stream = digest.newStream();
+        for (int offset = 0; offset < content.length; offset += step) {
+            stream.update(content, offset, Math.min(step, content.length - offset));
+        }
+        return stream.finish();
+    }
+
+    private long xxHash64(String value) {
+        XXHash64 hash = new XXHash64();
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        hash.update(bytes, 0, bytes.length);
+        return hash.getValue();
+    }
+
+    @Test
+    public void testXXHash64() {
+        // reference values of the xxHash implementation
+        assertEquals(0xef46db3751d8e999L, xxHash64(""));
+        assertEquals(0xd24ec4f1a98c6e5bL, xxHash64("a"));
+        assertEquals(0x44bc2cf5ad770999L, xxHash64("abc"));
+        assertEquals(0xfbcea83c8a378bf1L, xxHash64("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    public void testXXHash64InPieces() {
+        byte[] content = new byte[1000];
+        new Random(1).nextBytes(content);
+        XXHash64 whole = new XXHash64();
+        whole.update(content, 0, content.length);
+        XXHash64 pieces = new XXHash64();
+        for (int offset = 0; offset < content.length; offset += 7) {
+            pieces.update(content, offset, Math.min(7, content.length - offset));
+        }
+        assertEquals(whole.getValue(), pieces.getValue());
+    }
+
+    @Test
+    public void testPlainDigests() throws Exception {
+        Path path = createFile(100_000);
+        byte[] content = Files.readAllBytes(path);
+        assertEquals(DigestUtils.sha256Hex(content), FileDigest.SHA_256.checksum(path));
+        assertEquals(DigestUtils.sha256Hex(content), streamChecksum(FileDigest.SHA_256, content, 4096));
+
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        assertEquals(String.format("%08x", crc.getValue()), new FileDigest(FileDigest.Algorithm.CRC32C, 0).checksum(path));
+    }
+
+    @Test
+    public void testChunkedDigestMatchesStream() throws Exception {
+        FileDigest digest = new FileDigest(FileDigest.Algorithm.XXHASH64, 1000);
+        // smaller than one chunk, an exact multiple of the chunk size, and a partial last chunk
+        for (int size : new int[] { 0, 999, 3000, 3001 }) {
+            Path path = createFile(size);
+            byte[] content = Files.readAllBytes(path);
+            assertEquals(digest.checksum(path), streamChecksum(digest, content, 333));
+            assertEquals(digest.checksum(path), streamChecksum(digest, content, 1000));
+        }
+
+        // files up to the chunk size get the plain digest, larger ones the digest of the chunk digests
+        Path small = createFile(1000);
+        assertEquals(new FileDigest(FileDigest.Algorithm.XXHASH64, 0).checksum(small), digest.checksum(small));
+        Path large = createFile(1001);
+        assertNotEquals(new FileDigest(FileDigest.Algorithm.XXHASH64, 0).checksum(large), digest.checksum(large));
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(FileDigest.Algorithm.SHA_256, FileDigest.Algorithm.parse(""));
+        assertEquals(FileDigest.Algorithm.SHA_256, FileDigest.Algorithm.parse("SHA-256"));
+        assertEquals(FileDigest.Algorithm.SHA_512_256, FileDigest.Algorithm.parse("sha512/256"));
+        assertEquals(FileDigest.Algorithm.CRC32C, FileDigest.Algorithm.parse(" CRC32C "));
+        assertEquals(FileDigest.Algorithm.XXHASH64, FileDigest.Algorithm.parse("xxhash64"));
+        assertEquals(FileDigest.Algorithm.SHA_256, FileDigest.Algorithm.parse("blake3"));
+
+        assertTrue(FileDigest.SHA_256.isPlainSha256());
+        assertFalse(new FileDigest(FileDigest.Algorithm.SHA_256, 1024).isPlainSha256());
+    }
+
+}
@@ -0,0 +1,89 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path createSource(int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Path src = folder.newFile("src.tif").toPath();
+        Files.write(src, content);
+        return src;
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(FileTransfer.Method.STREAM, FileTransfer.Method.parse(""));
+        assertEquals(FileTransfer.Method.STREAM, FileTransfer.Method.parse("unknown"));
+        assertEquals(FileTransfer.Method.REFLINK, FileTransfer.Method.parse(" reflink "));
+        assertEquals(FileTransfer.Method.LINK, FileTransfer.Method.parse("Link"));
+    }
+
+    @Test
+    public void testStreamIsLeftToTheCaller() throws Exception {
+        Path src = createSource(100);
+        Path dest = folder.getRoot().toPath().resolve("dest.tif");
+        FileTransfer.Method method = FileTransfer.transfer(src, dest, FileTransfer.Method.STREAM, false, TransferThrottle.UNLIMITED);
+
+        assertEquals(FileTransfer.Method.STREAM, method);
+        assertFalse(Files.exists(dest));
+    }
+
+    @Test
+    public void testChannelCopiesContentAndModificationDate() throws Exception {
+        Path src = createSource(3 * 1024 * 1024 + 17);
+        FileTime time = FileTime.fromMillis(1_000_000_000_000L);
+        Files.setLastModifiedTime(src, time);
+        Path dest = folder.newFile("dest.tif").toPath();
+        Files.write(dest, new byte[5 * 1024 * 1024]);
+        FileTransfer.Method method = FileTransfer.transfer(src, dest, FileTransfer.Method.CHANNEL, true, TransferThrottle.UNLIMITED);
+
+        assertEquals(FileTransfer.Method.CHANNEL, method);
+        assertArrayEquals(Files.readAllBytes(src), Files.readAllBytes(dest));
+        assertEquals(time, Files.getLastModifiedTime(dest));
+    }
+
+    @Test
+    public void testLinkSharesTheFile() throws Exception {
+        Path src = createSource(1024);
+        Path dest = folder.getRoot().toPath().resolve("dest.tif");
+
+        FileTransfer.Method method = FileTransfer.transfer(src, dest, FileTransfer.Method.LINK, false, TransferThrottle.UNLIMITED);
+
+        // file systems without hard links fall back to a copy
+        assertTrue(method == FileTransfer.Method.LINK || method == FileTransfer.Method.CHANNEL);
+        if (method == FileTransfer.Method.LINK) {
+            assertTrue(Files.isSameFile(src, dest));
+        }
+        assertArrayEquals(Files.readAllBytes(src), Files.readAllBytes(dest));
+    }
+
+    @Test
+    public void testAutoProducesAnIndependentCopy() throws Exception {
+        Path src = createSource(1024);
+        Path dest = folder.getRoot().toPath().resolve("dest.tif");
+
+        FileTransfer.Method method = FileTransfer.transfer(src, dest, FileTransfer.Method.AUTO, false, TransferThrottle.UNLIMITED);
+
+        assertTrue(method == FileTransfer.Method.REFLINK || method == FileTransfer.Method.CHANNEL);
+        assertFalse(Files.isSameFile(src, dest));
+        assertArrayEquals(Files.readAllBytes(src), Files.readAllBytes(dest));
+    }
+
+}
@@ -0,0 +1,81 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalTransportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path master;
+    private Path target;
+
+    @Before
+    public void setUp() throws Exception {
+        master = folder.newFolder("master").toPath();
+        target = folder.newFolder("target").toPath();
+        for (int i = 1; i <= 3; i++) {
+            byte[] content = new byte[1000 * i];
+            new Random(i).nextBytes(content);
+            Files.write(master.resolve("0000000" + i + ".tif"), content);
+        }
+    }
+
+    private LocalTransport createTransport(String block) throws Exception {
+        XMLConfiguration xmlConfig = new XMLConfiguration();
+        xmlConfig.setDelimiterParsingDisabled(true);
+        xmlConfig.load(new StringReader("<config_plugin><config><manifest>true</manifest>" + block + "</config></config_plugin>"));
+        return new LocalTransport(new ZopExportConfig(xmlConfig.configurationAt("config")), new ExportMetrics(), ChecksumCache.DISABLED,
+                (processId, logType, message) -> {
+                });
+    }
+
+    private void assertManifestListsAllFiles(LocalTransport transport) throws Exception {
+        List<ExportSource> sources = Collections.singletonList(ExportSource.DEFAULT.resolve(null, master));
+        transport.copyImages(sources, target);
+
+        assertEquals(3, transport.manifest.size());
+        for (int i = 1; i <= 3; i++) {
+            Path file = master.resolve("0000000" + i + ".tif");
+            assertEquals(DigestUtils.sha256Hex(Files.readAllBytes(file)), transport.manifest.getChecksum(file.getFileName().toString(), 1000 * i));
+        }
+    }
+
+    @Test
+    public void testManifestOfLinks() throws Exception {
+        // falls back to a channel copy if the target is on another file system
+        assertManifestListsAllFiles(createTransport("<transferMode>link</transferMode>"));
+    }
+
+    @Test
+    public void testManifestOfClones() throws Exception {
+        // falls back to a channel copy if the file system does not support clones
+        assertManifestListsAllFiles(createTransport("<transferMode>reflink</transferMode>"));
+    }
+
+    @Test
+    public void testManifestOfChannelCopies() throws Exception {
+        assertManifestListsAllFiles(createTransport("<transferMode>channel</transferMode><verifyCopy>false</verifyCopy>"));
+    }
+
+    @Test
+    public void testManifestOfCopiesVerifiedWithOtherDigest() throws Exception {
+        assertManifestListsAllFiles(createTransport("<transferMode>channel</transferMode><verifyDigest>xxhash64</verifyDigest>"));
+        assertManifestListsAllFiles(createTransport("<transferMode>stream</transferMode><verifyDigest>xxhash64</verifyDigest>"));
+    }
+
+}
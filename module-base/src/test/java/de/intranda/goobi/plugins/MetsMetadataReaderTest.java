@@ -0,0 +1,100 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetsMetadataReaderTest {
+
+    private static final String HEADER = "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:mods=\"http://www.loc.gov/mods/v3\""
+            + " xmlns:goobi=\"http://meta.goobi.org/v1.5.1/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String dmdSec(String id, String metadata) {
+        return "<mets:dmdSec ID=\"" + id + "\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods><mods:extension><goobi:goobi>" + metadata
+                + "</goobi:goobi></mods:extension></mods:mods></mets:xmlData></mets:mdWrap></mets:dmdSec>";
+    }
+
+    private static String metadata(String name, String value) {
+        return "<goobi:metadata name=\"" + name + "\">" + value + "</goobi:metadata>";
+    }
+
+    private Path write(String fileName, String content) throws Exception {
+        Path path = folder.getRoot().toPath().resolve(fileName);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Test
+    public void testMonograph() throws Exception {
+        Path mets = write("meta.xml", HEADER
+                + dmdSec("DMDLOG_0000", metadata("TitleDocMain", "Title") + metadata("CatalogIDDigital", " 990012345 "))
+                + dmdSec("DMDLOG_0001", metadata("CatalogIDDigital", "chapter"))
+                + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" DMDID=\"DMDLOG_0000\" TYPE=\"Monograph\">"
+                + "<mets:div ID=\"LOG_0001\" DMDID=\"DMDLOG_0001\" TYPE=\"Chapter\"/></mets:div></mets:structMap></mets:mets>");
+
+        MetsMetadataReader.Result result = MetsMetadataReader.read(mets, "CatalogIDDigital", "CurrentNoSorting");
+
+        assertNotNull(result);
+        assertFalse(result.isAnchor());
+        assertEquals("990012345", result.getIdentifier());
+    }
+
+    @Test
+    public void testMultiVolumeWorkWithAnchorFile() throws Exception {
+        Path mets = write("meta.xml", HEADER
+                + dmdSec("DMDLOG_0001", metadata("CurrentNoSorting", "2020 1") + metadata("CatalogIDDigital", "volume"))
+                + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" TYPE=\"Periodical\">"
+                + "<mets:mptr LOCTYPE=\"URL\" xlink:href=\"meta_anchor.xml\"/>"
+                + "<mets:div ID=\"LOG_0001\" DMDID=\"DMDLOG_0001\" TYPE=\"PeriodicalVolume\"/></mets:div></mets:structMap></mets:mets>");
+        write("meta_anchor.xml", HEADER + dmdSec("DMDLOG_0000", metadata("CatalogIDDigital", "990054321"))
+                + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" DMDID=\"DMDLOG_0000\" TYPE=\"Periodical\">"
+                + "<mets:div ID=\"LOG_0001\" TYPE=\"PeriodicalVolume\"><mets:mptr LOCTYPE=\"URL\" xlink:href=\"meta.xml\"/></mets:div>"
+                + "</mets:div></mets:structMap></mets:mets>");
+
+        MetsMetadataReader.Result result = MetsMetadataReader.read(mets, "CatalogIDDigital", "CurrentNoSorting");
+
+        assertNotNull(result);
+        assertTrue(result.isAnchor());
+        assertEquals("990054321", result.getIdentifier());
+        assertEquals("2020 1", result.getVolume());
+    }
+
+    @Test
+    public void testMetadataInsideGroupsIsIgnored() throws Exception {
+        Path mets = write("meta.xml", HEADER
+                + dmdSec("DMDLOG_0000", "<goobi:metadata type=\"group\" name=\"Person\">" + metadata("CatalogIDDigital", "grouped")
+                        + "</goobi:metadata>" + metadata("CatalogIDDigital", "990012345"))
+                + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" DMDID=\"DMDLOG_0000\" TYPE=\"Monograph\"/></mets:structMap>"
+                + "</mets:mets>");
+
+        MetsMetadataReader.Result result = MetsMetadataReader.read(mets, "CatalogIDDigital", "CurrentNoSorting");
+
+        assertEquals("990012345", result.getIdentifier());
+    }
+
+    @Test
+    public void testInvalidFileReturnsNull() throws Exception {
+        Path mets = write("meta.xml", "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\"><broken>");
+        assertNull(MetsMetadataReader.read(mets, "CatalogIDDigital", "CurrentNoSorting"));
+    }
+
+    @Test
+    public void testMissingLogicalStructureReturnsNull() throws Exception {
+        Path mets = write("meta.xml", HEADER + dmdSec("DMDLOG_0000", metadata("CatalogIDDigital", "990012345")) + "</mets:mets>");
+        assertNull(MetsMetadataReader.read(mets, "CatalogIDDigital", "CurrentNoSorting"));
+    }
+
+}
@@ -0,0 +1,87 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PipelinedTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path createFile(int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Path path = folder.getRoot().toPath().resolve(size + ".tif");
+        Files.write(path, content);
+        return path;
+    }
+
+    @Test
+    public void testCopyToChannel() throws Exception {
+        PipelinedTransfer pipeline = new PipelinedTransfer(3, 4096);
+        FileDigest chunked = new FileDigest(FileDigest.Algorithm.XXHASH64, 10_000);
+        for (int size : new int[] { 0, 4096, 100_001 }) {
+            Path src = createFile(size);
+            Path dest = folder.getRoot().toPath().resolve("dest.tif");
+            String[] checksums;
+            try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                checksums = pipeline.copy(src, out, TransferThrottle.UNLIMITED, FileDigest.SHA_256, chunked);
+            }
+            byte[] content = Files.readAllBytes(src);
+            assertArrayEquals(content, Files.readAllBytes(dest));
+            assertEquals(DigestUtils.sha256Hex(content), checksums[0]);
+            // the digests of direct buffers equal the ones of the file
+            assertEquals(chunked.checksum(src), checksums[1]);
+        }
+    }
+
+    @Test
+    public void testCopyToStream() throws Exception {
+        Path src = createFile(50_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String checksum = new PipelinedTransfer(1, 4096).copy(src, out, TransferThrottle.UNLIMITED, FileDigest.SHA_256)[0];
+        assertArrayEquals(Files.readAllBytes(src), out.toByteArray());
+        assertEquals(DigestUtils.sha256Hex(out.toByteArray()), checksum);
+    }
+
+    @Test
+    public void testFailingTargetReleasesTheReader() throws Exception {
+        Path src = createFile(100_000);
+        PipelinedTransfer pipeline = new PipelinedTransfer(2, 4096);
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            try {
+                pipeline.copy(src, failing, TransferThrottle.UNLIMITED, FileDigest.SHA_256);
+                fail("The failure of the target should be passed on.");
+            } catch (IOException e) {
+                assertEquals("disk full", e.getMessage());
+            }
+        }
+        // the buffers are still usable afterwards
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pipeline.copy(src, out, TransferThrottle.UNLIMITED);
+        assertArrayEquals(Files.readAllBytes(src), out.toByteArray());
+    }
+
+}
@@ -0,0 +1,51 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+public class RemoteChecksumTest {
+
+    private static final String CHECKSUM = DigestUtils.sha256Hex("ZOP");
+
+    @Test
+    public void testParse() {
+        assertEquals(CHECKSUM, RemoteChecksum.parse(CHECKSUM + " */hotfolder/123/00000001.tif\n"));
+        assertEquals(CHECKSUM, RemoteChecksum.parse(CHECKSUM.toUpperCase() + "  file.tif"));
+        assertEquals(CHECKSUM, RemoteChecksum.parse("\\" + CHECKSUM + " *file\\nname.tif"));
+    }
+
+    @Test
+    public void testParseInvalidOutput() {
+        assertNull(RemoteChecksum.parse(""));
+        assertNull(RemoteChecksum.parse("sha256sum: /hotfolder/123/00000001.tif: No such file or directory"));
+        assertNull(RemoteChecksum.parse(CHECKSUM.substring(1) + " file.tif"));
+    }
+
+    @Test
+    public void testMissingCommandIsUnavailable() {
+        assertTrue(RemoteChecksum.isUnavailable(127, "bash: sha256sum: command not found"));
+        assertTrue(RemoteChecksum.isUnavailable(126, ""));
+        assertTrue(RemoteChecksum.isUnavailable(1, "sh: 1: sha256sum: command not found"));
+        assertTrue(RemoteChecksum.isUnavailable(0, ""));
+    }
+
+    @Test
+    public void testFailureOfSingleFileIsNotUnavailable() {
+        assertFalse(RemoteChecksum.isUnavailable(1, "sha256sum: /hotfolder/123/00000001.tif: Input/output error"));
+        assertFalse(RemoteChecksum.isUnavailable(1, "sha256sum: /hotfolder/123/00000001.tif: Permission denied"));
+        // the session dropped before the command finished
+        assertFalse(RemoteChecksum.isUnavailable(-1, ""));
+    }
+
+    @Test
+    public void testQuote() {
+        assertEquals("'/hotfolder/123/a b.tif'", RemoteChecksum.quote("/hotfolder/123/a b.tif"));
+        assertEquals("'/hotfolder/it'\\''s.tif'", RemoteChecksum.quote("/hotfolder/it's.tif"));
+    }
+
+}
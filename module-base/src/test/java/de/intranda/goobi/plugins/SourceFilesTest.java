@@ -0,0 +1,132 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SourceFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<ExportSource> master(Path path) throws Exception {
+        // the master folder is resolved without looking at the process
+        return Collections.singletonList(ExportSource.DEFAULT.resolve(null, path));
+    }
+
+    @Test
+    public void testIsEmpty() throws Exception {
+        Path master = folder.newFolder("master").toPath();
+        assertTrue(SourceFiles.isEmpty(master(master)));
+        assertTrue(SourceFiles.isEmpty(master(master.resolve("missing"))));
+
+        // hidden files and sub folders are not exported
+        Files.createFile(master.resolve(".hidden"));
+        Files.createDirectory(master.resolve("sub"));
+        assertTrue(SourceFiles.isEmpty(master(master)));
+
+        Files.createFile(master.resolve("00000001.tif"));
+        assertFalse(SourceFiles.isEmpty(master(master)));
+    }
+
+    @Test
+    public void testForEachVisitsAllFiles() throws Exception {
+        Path master = folder.newFolder("master").toPath();
+        Files.createFile(master.resolve("00000001.tif"));
+        Files.createFile(master.resolve("00000002.tif"));
+        Files.createFile(master.resolve(".hidden"));
+        Files.createDirectory(master.resolve("sub"));
+
+        Map<String, Path> visited = new HashMap<>();
+        int files = SourceFiles.forEach(master(master), (srcPath, targetName) -> visited.put(targetName, srcPath));
+
+        assertEquals(2, files);
+        assertEquals(Arrays.asList("00000001.tif", "00000002.tif"), new ArrayList<>(new TreeSet<>(visited.keySet())));
+        assertEquals(master.resolve("00000001.tif"), visited.get("00000001.tif"));
+    }
+
+    @Test
+    public void testForEachAppliesFiltersAndTargets() throws Exception {
+        Path master = folder.newFolder("master").toPath();
+        Files.createFile(master.resolve("00000001.tif"));
+        Path alto = folder.newFolder("alto").toPath();
+        Files.createFile(alto.resolve("00000001.xml"));
+        Files.createFile(alto.resolve("00000001.txt"));
+        List<ExportSource> sources = Arrays.asList(ExportSource.DEFAULT.resolve(null, master),
+                new ExportSource(ExportSource.MASTER, "/alto/", "*.xml", "").resolve(null, alto));
+
+        Map<String, Path> visited = new HashMap<>();
+        SourceFiles.forEach(sources, (srcPath, targetName) -> visited.put(targetName, srcPath));
+
+        assertEquals(new TreeSet<>(Arrays.asList("00000001.tif", "alto/00000001.xml")), visited.keySet());
+        assertEquals(alto.resolve("00000001.xml"), visited.get("alto/00000001.xml"));
+    }
+
+    @Test
+    public void testForEachSkipsDuplicateTargets() throws Exception {
+        Path first = folder.newFolder("first").toPath();
+        Files.createFile(first.resolve("00000001.tif"));
+        Path second = folder.newFolder("second").toPath();
+        Files.createFile(second.resolve("00000001.tif"));
+
+        List<Path> visited = new ArrayList<>();
+        int files = SourceFiles.forEach(Arrays.asList(ExportSource.DEFAULT.resolve(null, first), ExportSource.DEFAULT.resolve(null, second)),
+                (srcPath, targetName) -> visited.add(srcPath));
+
+        assertEquals(Collections.singletonList(first.resolve("00000001.tif")), visited);
+        assertEquals(1, files);
+    }
+
+    @Test
+    public void testForEachStopsAtFirstFailure() throws Exception {
+        Path master = folder.newFolder("master").toPath();
+        for (int i = 0; i < 5; i++) {
+            Files.createFile(master.resolve("0000000" + i + ".tif"));
+        }
+
+        List<String> visited = new ArrayList<>();
+        try {
+            SourceFiles.forEach(master(master), (srcPath, targetName) -> {
+                visited.add(targetName);
+                throw new IOException("failed");
+            });
+            fail("The failure of the visitor should be passed on.");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(1, visited.size());
+    }
+
+    @Test
+    public void testExportSourceFilters() {
+        ExportSource source = new ExportSource(ExportSource.MEDIA, "media", "*.{jpg,jpeg}", "*_thumb.*");
+        assertTrue(source.accepts("00000001.jpg"));
+        assertFalse(source.accepts("00000001.tif"));
+        assertFalse(source.accepts("00000001_thumb.jpg"));
+        assertEquals("media/00000001.jpg", source.getTargetName("00000001.jpg"));
+
+        // the METS source only exports the METS files by default
+        ExportSource mets = new ExportSource(ExportSource.METS, "", "", "");
+        assertTrue(mets.accepts("meta.xml"));
+        assertTrue(mets.accepts("meta_anchor.xml"));
+        assertFalse(mets.accepts("meta.xml.1"));
+        assertEquals("meta.xml", mets.getTargetName("meta.xml"));
+    }
+
+}
@@ -0,0 +1,73 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TransferPlanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCreateSumsUpSourceFiles() throws Exception {
+        Path master = folder.newFolder("master").toPath();
+        Files.write(master.resolve("00000001.tif"), new byte[1000]);
+        Files.write(master.resolve("00000002.tif"), new byte[500]);
+        // hidden files are not exported
+        Files.write(master.resolve(".hidden"), new byte[10_000]);
+
+        TransferPlan plan = TransferPlan.create(Collections.singletonList(ExportSource.DEFAULT.resolve(null, master)), Collections.emptyMap(),
+                -1, 0);
+
+        assertEquals(2, plan.getFiles());
+        assertEquals(1500, plan.getBytes());
+        assertEquals(1500 + 2 * TransferPlan.FILE_OVERHEAD, plan.getRequiredSpace());
+    }
+
+    @Test
+    public void testCreateLeavesOutDeliveredFiles() throws Exception {
+        Path master = folder.newFolder("master").toPath();
+        Files.write(master.resolve("00000001.tif"), new byte[1000]);
+        Files.write(master.resolve("00000002.tif"), new byte[500]);
+        Files.write(master.resolve("00000003.tif"), new byte[200]);
+        Map<String, Long> deliveredSizes = new HashMap<>();
+        deliveredSizes.put("00000001.tif", 1000L);
+        // an incomplete file is transferred again
+        deliveredSizes.put("00000002.tif", 100L);
+
+        TransferPlan plan = TransferPlan.create(Collections.singletonList(ExportSource.DEFAULT.resolve(null, master)), deliveredSizes, -1, 0);
+
+        assertEquals(2, plan.getFiles());
+        assertEquals(700, plan.getBytes());
+    }
+
+    @Test
+    public void testFits() {
+        TransferPlan plan = new TransferPlan(1, 1000, 1000 + TransferPlan.FILE_OVERHEAD + 100, 0);
+        assertTrue(plan.fits(0));
+        assertTrue(plan.fits(100));
+        assertFalse(plan.fits(101));
+        // an unknown usable space never cancels the export
+        assertTrue(new TransferPlan(1, Long.MAX_VALUE / 2, -1, 0).fits(0));
+    }
+
+    @Test
+    public void testEstimate() {
+        TransferPlan plan = new TransferPlan(10, 3700L * 1024 * 1024, -1, 1);
+        assertEquals(3700, plan.getEstimatedSeconds());
+        assertTrue(plan.getSummary().contains("about 1:01:40"));
+        assertEquals(-1, new TransferPlan(10, 1000, -1, 0).getEstimatedSeconds());
+    }
+
+}
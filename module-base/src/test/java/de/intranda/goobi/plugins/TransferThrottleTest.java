@@ -0,0 +1,69 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TransferThrottleTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    @Test
+    public void testUnlimitedWithoutSettings() {
+        assertSame(TransferThrottle.UNLIMITED, TransferThrottle.forTarget("localhost", 0, 0));
+        assertFalse(TransferThrottle.UNLIMITED.isBandwidthLimited());
+    }
+
+    @Test
+    public void testSameTargetSharesTheThrottle() {
+        TransferThrottle throttle = TransferThrottle.forTarget("zop.example.org", 10, 2);
+        assertSame(throttle, TransferThrottle.forTarget("zop.example.org", 10, 2));
+        assertTrue(throttle != TransferThrottle.forTarget("zop.example.org", 20, 2));
+        assertTrue(throttle != TransferThrottle.forTarget("other.example.org", 10, 2));
+    }
+
+    @Test
+    public void testBurstIsNotDelayed() throws Exception {
+        TransferThrottle throttle = new TransferThrottle(8 * MB, 0);
+        long start = System.nanoTime();
+        throttle.acquire(4 * MB);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+    }
+
+    @Test
+    public void testTransfersAreLimited() throws Exception {
+        // the bucket starts with one second worth of bytes, the remaining 2 MB take another half second
+        TransferThrottle throttle = new TransferThrottle(4 * MB, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 6 * 16; i++) {
+            throttle.acquire(64 * 1024);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + millis + " ms", millis >= 400);
+    }
+
+    @Test
+    public void testSlotsLimitConcurrentTransfers() throws Exception {
+        TransferThrottle throttle = new TransferThrottle(0, 1);
+        throttle.acquireSlot();
+        Thread second = new Thread(() -> {
+            try {
+                throttle.acquireSlot();
+                throttle.releaseSlot();
+            } catch (Exception e) {
+                // ignore
+            }
+        });
+        second.start();
+        second.join(200);
+        assertTrue(second.isAlive());
+        throttle.releaseSlot();
+        second.join(2000);
+        assertFalse(second.isAlive());
+    }
+
+}
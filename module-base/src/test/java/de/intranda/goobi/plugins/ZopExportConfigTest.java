@@ -0,0 +1,106 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Test;
+
+public class ZopExportConfigTest {
+
+    private ZopExportConfig parse(String block) throws Exception {
+        XMLConfiguration xmlConfig = new XMLConfiguration();
+        xmlConfig.setDelimiterParsingDisabled(true);
+        xmlConfig.load(new StringReader("<config_plugin><config>" + block + "</config></config_plugin>"));
+        return new ZopExportConfig(xmlConfig.configurationAt("config"));
+    }
+
+    @Test
+    public void testValuesAreTrimmed() throws Exception {
+        ZopExportConfig config = parse("<project> Archive_Project </project><identifier> CatalogIDDigital </identifier><path> /tmp/zop </path>");
+        assertEquals("Archive_Project", config.getProject());
+        assertEquals("CatalogIDDigital", config.getIdentifier());
+        assertEquals("/tmp/zop", config.getPath());
+    }
+
+    @Test
+    public void testBlankValuesUseDefaults() throws Exception {
+        ZopExportConfig config = parse("<project>*</project><path></path><sftp></sftp><port></port><checkIfPathEmpty></checkIfPathEmpty>");
+        assertEquals("", config.getPath());
+        assertFalse(config.isSftp());
+        assertEquals(22, config.getPort());
+        assertTrue(config.isCheckIfPathEmpty());
+        assertEquals(1, config.getCopyThreads());
+        assertEquals(1, config.getSftpChannels());
+    }
+
+    @Test
+    public void testInvalidNumberUsesDefault() throws Exception {
+        ZopExportConfig config = parse("<project>*</project><copyThreads>many</copyThreads><sftpMaxSessions>2</sftpMaxSessions>");
+        assertEquals(1, config.getCopyThreads());
+        assertEquals(2, config.getSftpMaxSessions());
+    }
+
+    @Test
+    public void testSftpSettings() throws Exception {
+        ZopExportConfig config = parse("<project>*</project><sftp>true</sftp><username>zop</username><hostname>zop.example.org</hostname>"
+                + "<port>2222</port><keyPath>/home/goobi/.ssh/id_rsa</keyPath><sftpChannels>4</sftpChannels>"
+                + "<sftpUploadAttempts>5</sftpUploadAttempts>");
+        assertTrue(config.isSftp());
+        assertEquals("zop", config.getUsername());
+        assertEquals("zop.example.org", config.getHostname());
+        assertEquals(2222, config.getPort());
+        assertEquals("/home/goobi/.ssh/id_rsa", config.getKeyPath());
+        assertEquals(4, config.getSftpChannels());
+        assertEquals(5, config.getSftpUploadAttempts());
+    }
+
+    @Test
+    public void testTransport() throws Exception {
+        assertEquals(ExportTransport.Type.LOCAL, parse("<project>*</project>").getTransport());
+        assertEquals(ExportTransport.Type.SFTP, parse("<project>*</project><sftp>true</sftp>").getTransport());
+        assertEquals(ExportTransport.Type.LOCAL, parse("<project>*</project><transport>local</transport><sftp>true</sftp>").getTransport());
+
+        ZopExportConfig config = parse("<project>*</project><transport>s3</transport><s3Endpoint>http://localhost:9000/</s3Endpoint>"
+                + "<s3Bucket>zop</s3Bucket><s3PathStyle>true</s3PathStyle><s3PartSize>1</s3PartSize>");
+        assertEquals(ExportTransport.Type.S3, config.getTransport());
+        assertFalse(config.isSftp());
+        assertEquals("zop", config.getS3Client().getBucket());
+        assertEquals("us-east-1", config.getS3Client().getRegion());
+        assertTrue(config.getS3Client().isPathStyle());
+        assertEquals(S3Client.MIN_PART_SIZE, config.getS3Client().getPartSize());
+        assertEquals(4, config.getS3Client().getThreads());
+        assertEquals("s3://zop/", config.getTarget());
+
+        // 4096 MB would overflow an int
+        config = parse("<project>*</project><transport>s3</transport><s3Endpoint>http://localhost:9000/</s3Endpoint>"
+                + "<s3Bucket>zop</s3Bucket><s3PartSize>4096</s3PartSize>");
+        assertTrue(config.getS3Client().getPartSize() > S3Client.MIN_PART_SIZE);
+
+        // without a bucket the export is rejected as incomplete
+        assertNull(parse("<project>*</project><transport>s3</transport><s3Endpoint>http://localhost:9000</s3Endpoint>").getS3Client());
+    }
+
+    @Test
+    public void testSources() throws Exception {
+        assertEquals(Collections.singletonList(ExportSource.DEFAULT), parse("<project>*</project>").getSources());
+
+        ZopExportConfig config = parse("<project>*</project><source folder=\"master\" /><source folder=\"alto\" target=\"alto\" "
+                + "include=\"*.xml\" exclude=\"tmp_*\" /><source target=\"ignored\" />");
+        List<ExportSource> sources = config.getSources();
+        assertEquals(2, sources.size());
+        assertEquals("master", sources.get(0).getFolder());
+        assertEquals("", sources.get(0).getTarget());
+        assertEquals("alto", sources.get(1).getFolder());
+        assertEquals("alto", sources.get(1).getTarget());
+        assertEquals("*.xml", sources.get(1).getInclude());
+        assertEquals("tmp_*", sources.get(1).getExclude());
+    }
+
+}
@@ -1,5 +1,6 @@
 package de.intranda.goobi.plugins;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -10,6 +11,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.commons.configuration.reloading.FileChangedReloadingStrategy;
 import org.easymock.EasyMock;
@@ -30,7 +32,7 @@ import de.sub.goobi.helper.NIOFileUtils;
 import de.sub.goobi.helper.StorageProvider;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ ConfigPlugins.class, ZopExportPlugin.class, StorageProvider.class })
+@PrepareForTest({ ConfigPlugins.class, ZopExportPlugin.class, LocalTransport.class, StorageProvider.class })
 @PowerMockIgnore({ "javax.management.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
 public class ZopExportPluginTest {
 
@@ -84,51 +86,70 @@ public class ZopExportPluginTest {
         return config;
     }
 
-    /*================= Tests for the private methods ================= */
+    private LocalTransport createLocalTransport() {
+        ZopExportConfig config = new ZopExportConfig(new HierarchicalConfiguration());
+        return new LocalTransport(config, new ExportMetrics(), ChecksumCache.DISABLED, (processId, logType, message) -> {
+        });
+    }
+
+    /*================= Tests for the methods of LocalTransport ================= */
 
-    /* Tests for the method createFolderLocal(Path) */
+    /* Tests for the method createFolder(Path) */
     @Test
     public void testCreateFolderLocalGivenNull() throws Exception {
-        ZopExportPlugin plugin = new ZopExportPlugin();
-        assertFalse(WhiteboxImpl.invokeMethod(plugin, "createFolderLocal", null));
+        assertFalse(createLocalTransport().createFolder(null));
     }
 
     @Test
     public void testCreateFolderLocalGivenEmptyPath() throws Exception {
-        ZopExportPlugin plugin = new ZopExportPlugin();
-        assertFalse(WhiteboxImpl.invokeMethod(plugin, "createFolderLocal", Paths.get("")));
+        assertFalse(createLocalTransport().createFolder(Paths.get("")));
     }
 
     @Test
     public void testCreateFolderLocalGivenExistingPath() throws Exception {
-        ZopExportPlugin plugin = new ZopExportPlugin();
         Path temp = tempFolder.toPath();
         assertTrue(Files.exists(temp));
-        assertTrue(WhiteboxImpl.invokeMethod(plugin, "createFolderLocal", temp));
+        assertTrue(createLocalTransport().createFolder(temp));
     }
 
     @Test
     public void testCreateFolderLocalGivenUnexistingPath() throws Exception {
-        ZopExportPlugin plugin = new ZopExportPlugin();
         final Path path = Path.of(tempFolderDirectory, "unexisting_path");
         assertFalse(Files.exists(path));
-        assertTrue(WhiteboxImpl.invokeMethod(plugin, "createFolderLocal", path));
+        assertTrue(createLocalTransport().createFolder(path));
         assertTrue(Files.exists(path));
         Files.delete(path);
         assertFalse(Files.exists(path));
     }
 
-    /* Tests for the method createCTLLocal(Path) */
+    /* Tests for the method createCTL(Path) */
     @Test
     public void testCreateCTLLocalGivenAPath() throws Exception {
-        ZopExportPlugin plugin = new ZopExportPlugin();
+        LocalTransport transport = createLocalTransport();
         final Path path = Path.of(tempFolderDirectory, "ctl_test");
         final Path filePath = path.getParent().resolve(path.getFileName().toString().concat(".ctl"));
         assertFalse(Files.exists(filePath));
-        WhiteboxImpl.invokeMethod(plugin, "createCTLLocal", path);
+        WhiteboxImpl.invokeMethod(transport, "createCTL", path);
         assertTrue(Files.exists(filePath));
         Files.delete(filePath);
         assertFalse(Files.exists(filePath));
     }
 
+    /* Tests for the method prepareStaging(Path, Path) */
+    @Test
+    public void testPrepareStagingLocalGivenLeftovers() throws Exception {
+        LocalTransport transport = createLocalTransport();
+        final Path path = Path.of(tempFolderDirectory, "staging_test");
+        final Path stagingPath = AbstractTransport.getStagingPath(path);
+        assertEquals(".staging_test.partial", stagingPath.getFileName().toString());
+        Files.createDirectories(path);
+        Files.createDirectories(stagingPath);
+        Files.createFile(stagingPath.resolve("00000001.tif"));
+        WhiteboxImpl.invokeMethod(transport, "prepareStaging", path, stagingPath);
+        // the empty target folder would block the rename, the files of the interrupted attempt are not reused without resume
+        assertFalse(Files.exists(path));
+        assertTrue(Files.exists(stagingPath));
+        assertFalse(Files.exists(stagingPath.resolve("00000001.tif")));
+    }
+
 }
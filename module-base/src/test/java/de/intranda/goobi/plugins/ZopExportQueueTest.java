@@ -0,0 +1,104 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZopExportQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ZopExportJob createJob(int processId) {
+        return new ZopExportJob(processId, 7, "/opt/digiverso/goobi/metadata/" + processId + "/images/master", "/hotfolder/123",
+                ExportTransport.Type.LOCAL, System.currentTimeMillis());
+    }
+
+    private void waitForEmptyFolder(Path path) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            try (Stream<Path> files = Files.list(path)) {
+                if (files.count() == 0) {
+                    return;
+                }
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testJobRoundTrip() throws Exception {
+        ZopExportJob job = new ZopExportJob(42, null, "/source", "/target/folder", ExportTransport.Type.S3, 1234L);
+        Path file = folder.getRoot().toPath().resolve("job");
+
+        job.write(file);
+        ZopExportJob read = ZopExportJob.read(file);
+
+        assertEquals(42, read.getProcessId());
+        assertNull(read.getStepId());
+        assertEquals("/source", read.getSource());
+        assertEquals("/target/folder", read.getTarget());
+        assertEquals(ExportTransport.Type.S3, read.getTransport());
+        assertEquals(1234L, read.getCreated());
+    }
+
+    @Test
+    public void testEnqueuedJobIsProcessedAndRemoved() throws Exception {
+        Path queueFolder = folder.getRoot().toPath().resolve("queue");
+        List<ZopExportJob> processed = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        ZopExportQueue queue = new ZopExportQueue(queueFolder, 2, job -> {
+            processed.add(job);
+            latch.countDown();
+            return job.getProcessId() == 1;
+        });
+
+        queue.enqueue(createJob(1));
+        queue.enqueue(createJob(2));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        waitForEmptyFolder(queueFolder);
+        assertEquals(2, processed.size());
+        assertEquals(7, processed.get(0).getStepId().intValue());
+        // failed jobs are not repeated either
+        try (Stream<Path> files = Files.list(queueFolder)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testPendingJobsAreResumed() throws Exception {
+        Path queueFolder = folder.newFolder("queue").toPath();
+        createJob(1).write(queueFolder.resolve("0000000000001-0001-1" + ZopExportQueue.RUNNING_EXTENSION));
+        createJob(2).write(queueFolder.resolve("0000000000002-0002-2" + ZopExportQueue.JOB_EXTENSION));
+        List<Integer> processed = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        ZopExportQueue queue = new ZopExportQueue(queueFolder, 1, job -> {
+            processed.add(job.getProcessId());
+            latch.countDown();
+            return true;
+        });
+
+        queue.resumePendingJobs();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        waitForEmptyFolder(queueFolder);
+        // a single worker processes the jobs in the order they were queued
+        assertEquals(List.of(1, 2), processed);
+        assertFalse(Files.exists(queueFolder.resolve("0000000000001-0001-1" + ZopExportQueue.RUNNING_EXTENSION)));
+        assertFalse(Files.exists(queueFolder.resolve("0000000000002-0002-2" + ZopExportQueue.JOB_EXTENSION)));
+    }
+
+}
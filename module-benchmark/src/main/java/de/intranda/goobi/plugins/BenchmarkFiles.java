@@ -0,0 +1,68 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.XMLConfiguration;
+
+/**
+ * Creates and removes the synthetic folders and the settings used by the benchmarks.
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+        // only static methods
+    }
+
+    /**
+     * 
+     * @param folder folder the files are created in
+     * @param fileCount number of files
+     * @param fileSizeKb size of every file in KB
+     * @throws IOException
+     */
+    static void createFiles(Path folder, int fileCount, int fileSizeKb) throws IOException {
+        Random random = new Random(fileCount * 31L + fileSizeKb);
+        byte[] content = new byte[fileSizeKb * 1024];
+        for (int i = 1; i <= fileCount; i++) {
+            random.nextBytes(content);
+            Files.write(folder.resolve(String.format("%08d.tif", i)), content);
+        }
+    }
+
+    /**
+     * 
+     * @param block options of a &lt;config&gt; block of plugin_intranda_export_zop.xml
+     * @return ZopExportConfig with these options, all others keep their defaults
+     * @throws ConfigurationException
+     */
+    static ZopExportConfig createConfig(String block) throws ConfigurationException {
+        XMLConfiguration xmlConfig = new XMLConfiguration();
+        xmlConfig.setDelimiterParsingDisabled(true);
+        xmlConfig.load(new StringReader("<config_plugin><config>" + block + "</config></config_plugin>"));
+        return new ZopExportConfig(xmlConfig.configurationAt("config"));
+    }
+
+    /**
+     * 
+     * @param folder folder that is deleted together with its contents
+     * @throws IOException
+     */
+    static void delete(Path folder) throws IOException {
+        if (folder == null || !Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the ways of moving the bytes of a single large file: stream copies with different buffer sizes, FileChannel.transferTo and
+ * Files.copy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyMethodBenchmark {
+
+    @Param({ "65536" })
+    private int fileSizeKb;
+
+    @Param({ "8192", "65536", "1048576" })
+    private int bufferSize;
+
+    private Path folder;
+    private Path srcPath;
+    private Path destPath;
+    private byte[] buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("zop-benchmark-copy");
+        BenchmarkFiles.createFiles(folder, 1, fileSizeKb);
+        srcPath = folder.resolve("00000001.tif");
+        destPath = folder.resolve("copy.tif");
+        buffer = new byte[bufferSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(folder);
+    }
+
+    @Benchmark
+    public long streamCopy() throws IOException {
+        long total = 0;
+        try (InputStream in = Files.newInputStream(srcPath); OutputStream out = Files.newOutputStream(destPath)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long channelTransferTo() throws IOException {
+        try (FileChannel in = FileChannel.open(srcPath, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(destPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            return position;
+        }
+    }
+
+    @Benchmark
+    public Path filesCopy() throws IOException {
+        return Files.copy(srcPath, destPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
@@ -0,0 +1,84 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copies a whole master folder with LocalTransport, i.e. through FileTransfer and the PipelinedTransfer of ChecksumCopier, over folders of
+ * different file sizes and with the settings that change the copy path the most.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LocalCopyBenchmark {
+
+    @Param({ "200" })
+    private int fileCount;
+
+    @Param({ "64", "16384" })
+    private int fileSizeKb;
+
+    @Param({ "stream", "channel" })
+    private String transferMode;
+
+    @Param({ "true", "false" })
+    private boolean verifyCopy;
+
+    @Param({ "1", "4" })
+    private int copyThreads;
+
+    private Path sourceFolder;
+    private Path targetFolder;
+    private List<ExportSource> sources;
+    private ZopExportConfig config;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        sourceFolder = Files.createTempDirectory("zop-benchmark-source");
+        targetFolder = Files.createTempDirectory("zop-benchmark-target");
+        BenchmarkFiles.createFiles(sourceFolder, fileCount, fileSizeKb);
+        // the master folder is resolved without looking at the process
+        sources = Collections.singletonList(ExportSource.DEFAULT.resolve(null, sourceFolder));
+        config = BenchmarkFiles.createConfig("<transferMode>" + transferMode + "</transferMode><verifyCopy>" + verifyCopy
+                + "</verifyCopy><copyThreads>" + copyThreads + "</copyThreads>");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(sourceFolder);
+        BenchmarkFiles.delete(targetFolder);
+    }
+
+    /**
+     * the files of the previous invocation are replaced, just like the files of an interrupted export
+     */
+    @Benchmark
+    public int copyImages() throws IOException {
+        LocalTransport transport = new LocalTransport(config, new ExportMetrics(), ChecksumCache.DISABLED, (processId, logType, message) -> {
+        });
+        transport.copyImages(sources, targetFolder);
+        return transport.manifest.size();
+    }
+
+}
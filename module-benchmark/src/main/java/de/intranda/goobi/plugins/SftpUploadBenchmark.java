@@ -0,0 +1,119 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+
+/**
+ * Uploads a synthetic master folder to an embedded SFTP server with SftpTransport, using a pooled session and one or several sftp channels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SftpUploadBenchmark {
+
+    private static final String USERNAME = "zop";
+    private static final String HOSTNAME = "localhost";
+    private static final Path REMOTE_FOLDER = Paths.get("/upload");
+
+    @Param({ "50" })
+    private int fileCount;
+
+    @Param({ "64", "4096" })
+    private int fileSizeKb;
+
+    @Param({ "1", "4" })
+    private int channels;
+
+    private Path sourceFolder;
+    private Path remoteFolder;
+    private Path keyFolder;
+    private List<ExportSource> sources;
+    private ZopExportConfig config;
+    private SshServer server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        sourceFolder = Files.createTempDirectory("zop-benchmark-source");
+        remoteFolder = Files.createTempDirectory("zop-benchmark-remote");
+        keyFolder = Files.createTempDirectory("zop-benchmark-keys");
+        BenchmarkFiles.createFiles(sourceFolder, fileCount, fileSizeKb);
+        // the master folder is resolved without looking at the process
+        sources = Collections.singletonList(ExportSource.DEFAULT.resolve(null, sourceFolder));
+        Files.createDirectory(remoteFolder.resolve(REMOTE_FOLDER.getFileName().toString()));
+
+        // the plugin authenticates with a PEM private key, the embedded server accepts every key
+        String keyPath = keyFolder.resolve("id_rsa").toString();
+        KeyPair keyPair = KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 2048);
+        keyPair.writePrivateKey(keyPath);
+        keyPair.dispose();
+
+        server = SshServer.setUpDefaultServer();
+        server.setHost(HOSTNAME);
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(keyFolder.resolve("hostkey.ser")));
+        server.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
+        server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        server.setFileSystemFactory(new VirtualFileSystemFactory(remoteFolder));
+        server.start();
+        config = BenchmarkFiles.createConfig("<transport>sftp</transport><username>" + USERNAME + "</username><hostname>" + HOSTNAME
+                + "</hostname><port>" + server.getPort() + "</port><keyPath>" + keyPath + "</keyPath><sftpChannels>" + channels
+                + "</sftpChannels>");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop(true);
+        BenchmarkFiles.delete(sourceFolder);
+        BenchmarkFiles.delete(remoteFolder);
+        BenchmarkFiles.delete(keyFolder);
+    }
+
+    /**
+     * the files of the previous invocation are replaced, the session is taken from the pool again just like by the next export
+     */
+    @Benchmark
+    public int copyImages() throws Exception {
+        SftpTransport transport = new SftpTransport(config, new ExportMetrics(), ChecksumCache.DISABLED, (processId, logType, message) -> {
+        });
+        if (!transport.connect()) {
+            throw new IOException("Failed to connect to the embedded SFTP server.");
+        }
+        try {
+            transport.copyImages(sources, REMOTE_FOLDER);
+            return transport.manifest.size();
+        } finally {
+            transport.close();
+        }
+    }
+
+}